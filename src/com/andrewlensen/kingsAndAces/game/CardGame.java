@@ -1,159 +1,405 @@
 package com.andrewlensen.kingsAndAces.game;
 
-import com.andrewlensen.kingsAndAces.game.moves.CardMove;
 import com.andrewlensen.kingsAndAces.game.moves.DealMove;
-import com.andrewlensen.kingsAndAces.gui.CardFrame;
-import com.andrewlensen.kingsAndAces.gui.CardPanel;
-import com.andrewlensen.kingsAndAces.gui.RenderMessage;
+import com.andrewlensen.kingsAndAces.game.moves.MoveResult;
 
-import java.awt.*;
-import java.awt.event.KeyEvent;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Stack;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by Andrew on 28/12/13.
  */
 public class CardGame {
-    //Actually uses copy on write arraylists to prevent concurrent modification from threading
-    //(swing vs logic)
+    //Suit of each king and ace pile, top to bottom
+    public static final Card.Suit[] FOUNDATION_SUITS = {Card.Suit.HEARTS, Card.Suit.DIAMONDS, Card.Suit.CLUBS, Card.Suit.SPADES};
+    public static final int BOARD_PILES = 12;
+    //Dealing stops once the pack is down to this
+    private static final int LAST_ROUND_PACK_SIZE = BOARD_PILES + 1;
+
+    //Only touched on the game loop. Swing draws from the snapshot published after each change.
     private final List<List<Card>> board;
     private final List<List<Card>> kingPiles;
     private final List<List<Card>> acePiles;
     private final Stack<Card> deck;
-    private final CardFrame cardFrame;
-    private final Stack<CardMove> history;
+    //Null when there is no display, e.g. GameEngine
+    private final GameLoop loop;
+    private final MoveLog history;
+    private GameView view = GameView.NONE;
     private Hand hand;
+    private final AtomicReference<GameSnapshot> snapshot = new AtomicReference<GameSnapshot>(GameSnapshot.EMPTY);
     private long startTime;
+    //Reproduces the pack order, see DealCatalog
+    private long dealNumber;
     private boolean canAddToDeckFromBoard = false;
     private boolean hasDealt = false;
+    //Where the deal is up to, changed only by dealing, taking a deal back and confirmDeal
+    private DealState dealState = DealState.AWAITING_CONFIRM;
+    //Set when a new game replaces this one part way through dealing
+    private boolean abandoned = false;
 
     //Shouldn't be used generally. Bit of a hack
     private ArrayList<Card> pack = null;
-    private CountDownLatch dealLatch;
-
-    public CardGame(CardFrame cardFrame) {
-        this.cardFrame = cardFrame;
-        board = new CopyOnWriteArrayList<List<Card>>();
+    //The next card to be dealt. The pack is never changed, dealing and taking back just move this.
+    private int packNext;
+    //Zobrist hash of the position, kept up to date by everything that changes it
+    private long hash;
+    //The part of hash from each section's cards, see Zobrist, kept up to date alongside it
+    private final long[] sectionHashes = new long[Zobrist.SECTIONS];
+    //Told about every change to the board piles and hand, like the hash
+    private final MoveGenerator moveGenerator = new MoveGenerator();
+    //What the player has done, for a replay. Null for games with no display.
+    private Recording recording;
+    //Told about each position published once the deal is done, null for no hints
+    private HintService hintService;
+    //Told about every move as it's made, so the game survives a crash. Null for none.
+    private GameJournal journal;
+
+    /**
+     * A game with no display, driven directly by the caller.
+     */
+    public CardGame() {
+        this(null);
+    }
+
+    public CardGame(GameLoop loop) {
+        this.loop = loop;
+        board = new ArrayList<List<Card>>();
         deck = new Stack<Card>();
-        hand = new Hand(new CopyOnWriteArrayList<Card>(), -1);
-        history = new Stack<CardMove>();
-        kingPiles = new CopyOnWriteArrayList<List<Card>>();
-        acePiles = new CopyOnWriteArrayList<List<Card>>();
+        hand = new Hand(new Pile(), -1);
+        history = new MoveLog();
+        kingPiles = new ArrayList<List<Card>>();
+        acePiles = new ArrayList<List<Card>>();
     }
 
-    public static void repaintWhileDealing(CardPanel panel) {
-        panel.repaint();
-        try {
-            Thread.sleep(50);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    public GameLoop getLoop() {
+        return loop;
     }
 
-    public CountDownLatch getDealLatch() {
-        return dealLatch;
+    public GameView getView() {
+        return view;
     }
 
-    public void dealGame(CardPanel panel) {
-        while (!panel.isReady()) {
-            try {
-                //Wait for graphics to render once before we deal.
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    public void setView(GameView view) {
+        this.view = view;
+    }
+
+    /**
+     * Makes the current state visible to Swing. Must be called on the game loop, after a change and before
+     * asking for a repaint. Does nothing for games without a display.
+     */
+    public void publish() {
+        if (loop != null) {
+            snapshot.set(GameSnapshot.of(this));
+            if (hintService != null && hasDealt) {
+                hintService.positionChanged(this);
             }
         }
-        //Ensures we get to see the deck being dealt
-        try {
-            Thread.sleep(100);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    }
+
+    public HintService getHintService() {
+        return hintService;
+    }
+
+    public void setHintService(HintService hintService) {
+        this.hintService = hintService;
+    }
+
+    public GameJournal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(GameJournal journal) {
+        this.journal = journal;
+    }
+
+    public GameSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Deals the next round if the deal is waiting on the player, otherwise does nothing. Can be called from any
+     * thread, the round is dealt on the game loop.
+     */
+    public void confirmDeal() {
+        loop.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (abandoned || (dealState != DealState.AWAITING_CONFIRM && dealState != DealState.AWAITING_DECK_ADDS)) {
+                    return;
+                }
+                dealState = DealState.DEALING_ROUND;
+                DealMove dealMove = new DealMove();
+                dealMove.makeMove(CardGame.this);
+                record(dealMove.encode());
+                publish();
+                view.refresh();
+                promptForDeal();
+            }
+        });
+    }
+
+    /**
+     * Stops this game's deal, for when a new game replaces it. Must be run on the game loop.
+     */
+    public void abandon() {
+        abandoned = true;
+        //The journal is the new game's now
+        journal = null;
+    }
+
+    public DealState getDealState() {
+        return dealState;
+    }
+
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * A new unshuffled pack, without the kings and aces the foundations start with.
+     */
+    public static ArrayList<Card> newPack() {
+        ArrayList<Card> pack = new ArrayList<Card>();
+        makePacks(pack);
+        return pack;
+    }
+
+    //Run on the game loop once the panel has painted, so the deal can be seen
+    public void dealGame(long dealNumber) {
+        this.dealNumber = dealNumber;
+        setUp(DealCatalog.pack(dealNumber));
+        deal();
+    }
+
+    /**
+     * Puts out the kings and aces and takes the pack, ready for the first DealMove.
+     */
+    public void setUp(ArrayList<Card> shuffledPack) {
         startTime = System.currentTimeMillis();
         for (int i = 0; i < 4; i++) {
-            kingPiles.add(new CopyOnWriteArrayList<Card>());
+            kingPiles.add(new Pile());
+        }
+        for (int i = 0; i < 4; i++) {
+            dealCard(kingPiles.get(i), new Card(FOUNDATION_SUITS[i], Card.Rank.KING, true));
         }
-        kingPiles.get(0).add(new Card(Card.Suit.HEARTS, Card.Rank.KING, true));
-        repaintWhileDealing(panel);
-        kingPiles.get(1).add(new Card(Card.Suit.DIAMONDS, Card.Rank.KING, true));
-        repaintWhileDealing(panel);
-        kingPiles.get(2).add(new Card(Card.Suit.CLUBS, Card.Rank.KING, true));
-        repaintWhileDealing(panel);
-        kingPiles.get(3).add(new Card(Card.Suit.SPADES, Card.Rank.KING, true));
-        repaintWhileDealing(panel);
 
         for (int i = 0; i < 4; i++) {
-            acePiles.add(new CopyOnWriteArrayList<Card>());
-        }
-        acePiles.get(0).add(new Card(Card.Suit.HEARTS, Card.Rank.ACE, true));
-        repaintWhileDealing(panel);
-        acePiles.get(1).add(new Card(Card.Suit.DIAMONDS, Card.Rank.ACE, true));
-        repaintWhileDealing(panel);
-        acePiles.get(2).add(new Card(Card.Suit.CLUBS, Card.Rank.ACE, true));
-        repaintWhileDealing(panel);
-        acePiles.get(3).add(new Card(Card.Suit.SPADES, Card.Rank.ACE, true));
-        repaintWhileDealing(panel);
-
-        pack = new ArrayList<Card>();
-        makePacks(pack);
-        Collections.shuffle(pack);
+            acePiles.add(new Pile());
+        }
+        for (int i = 0; i < 4; i++) {
+            dealCard(acePiles.get(i), new Card(FOUNDATION_SUITS[i], Card.Rank.ACE, true));
+        }
+
+        pack = shuffledPack;
+        packNext = 0;
+        dealState = DealState.AWAITING_CONFIRM;
+        if (loop != null) {
+            recording = new Recording(dealNumber, startTime);
+        }
+        if (journal != null) {
+            journal.newGame(dealNumber);
+        }
 
         //Make 12 piles
-        for (int i = 0; i < 12; i++) {
-            board.add(new CopyOnWriteArrayList<Card>());
+        for (int i = 0; i < BOARD_PILES; i++) {
+            board.add(new Pile());
+        }
+        rehash();
+        publish();
+    }
+
+    private void dealCard(List<Card> pile, Card card) {
+        pile.add(card);
+        publish();
+        view.cardDealt(card);
+    }
+
+    /**
+     * Starts a deal that goes a round at a time as the player confirms, so they can add to the deck in between.
+     * Only for games with a game loop. Nothing waits for the player, each confirmDeal deals a round.
+     */
+    public void deal() {
+        setHasDealt(false);
+        dealState = DealState.AWAITING_CONFIRM;
+        publish();
+        view.refresh();
+        promptForDeal();
+    }
+
+    //Tells the player what confirming will do next
+    private void promptForDeal() {
+        if (dealState == DealState.AWAITING_CONFIRM) {
+            view.showMessage("Hit Enter/click the pack to start dealing", false);
+        } else if (dealState == DealState.AWAITING_DECK_ADDS) {
+            //Get the user to check for adding to the deck
+            view.showMessage(isLastDealRound() ? "Hit Enter/click the pack to finish dealing" : "Hit Enter/click the pack to continue dealing", false);
         }
-        deal(panel);
+    }
 
+    //Where the deal is up to going by the position alone
+    private DealState dealStateOfPosition() {
+        if (hasDealt) {
+            return DealState.DONE;
+        }
+        //A round is out once the first one has been dealt
+        return canAddToDeckFromBoard ? DealState.AWAITING_DECK_ADDS : DealState.AWAITING_CONFIRM;
     }
 
-    public synchronized void deal(CardPanel panel) {
-        hasDealt = false;
-        //canAddToDeckFromBoard = false;
-        //Let them initiate dealing
-        panel.storeMessage(new RenderMessage("Hit Enter/click the pack to start dealing", false));
-        repaintWhileDealing(panel);
+    /**
+     * Puts the card(s) left over from the last round from the pack onto the deck, if a round is out.
+     * Returns how many went on.
+     */
+    public int finishDealRound() {
+        if (!canAddToDeckFromBoard || hasDealt) {
+            return 0;
+        }
+        packToDeck();
+        if (packLeft() == 1) {
+            //Special case where we deal 2 on the last one
+            packToDeck();
+            checkHash();
+            return 2;
+        }
+        checkHash();
+        return 1;
+    }
 
-        waitForNextDealConfirmation();
+    private void packToDeck() {
+        deck.push(takeFromPack());
+        flip(Zobrist.DECK, deck.size() - 1, deck.peek());
+    }
 
+    private int packLeft() {
+        return pack.size() - packNext;
+    }
 
-        //Deal to all 12 piles accounting for undos
-        while (pack.size() > 13) {
-            System.out.println(pack.size());
-            DealMove dealMove = new DealMove();
-            dealMove.makeMove(this, panel);
-            history.push(dealMove);
+    private Card takeFromPack() {
+        flip(Zobrist.PACK, packLeft() - 1, pack.get(packNext));
+        return pack.get(packNext++);
+    }
 
+    //Undoes takeFromPack, the card having been taken off wherever it went
+    private void putBackOnPack() {
+        packNext--;
+        flip(Zobrist.PACK, packLeft() - 1, pack.get(packNext));
+    }
+
+    /**
+     * Deals the next round of 12 if there is one, otherwise the deal is over.
+     */
+    public boolean dealNextRound() {
+        if (packLeft() <= LAST_ROUND_PACK_SIZE) {
+            setHasDealt(true);
+            dealState = DealState.DONE;
+            checkHash();
+            return false;
+        }
+        setCanAddToDeckFromBoard(false);
+        for (int j = 0; j < BOARD_PILES; j++) {
+            List<Card> pile = board.get(j);
+            //Want them all unrevealed
+            dealCard(pile, takeFromPack());
+            flip(j, pile.size() - 1, pile.get(pile.size() - 1));
+            moveGenerator.boardPileChanged(j, pile);
         }
-        System.out.println(pack.size());
-        repaintWhileDealing(panel);
-        hasDealt = true;
+        setCanAddToDeckFromBoard(true);
+        dealState = DealState.AWAITING_DECK_ADDS;
+        checkHash();
+        return true;
     }
 
-    public synchronized void waitForNextDealConfirmation() {
-        dealLatch = new CountDownLatch(1);
-        KeyEventDispatcher dispatcher = new KeyEventDispatcher() {
-            // Anonymous class invoked from EDT
-            public boolean dispatchKeyEvent(KeyEvent e) {
-                if (e.getKeyCode() == KeyEvent.VK_ENTER)
-                    dealLatch.countDown();
-                return false;
-            }
-        };
-        KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(dispatcher);
-        try {
-            dealLatch.await();  // current thread waits here until countDown() is called
-        } catch (InterruptedException ignored) {
+    //Undoes dealNextRound
+    public void takeBackDealRound(boolean dealtRound) {
+        if (!dealtRound) {
+            setHasDealt(false);
+            checkHash();
+            return;
+        }
+        for (int i = BOARD_PILES - 1; i >= 0; i--) {
+            List<Card> pile = board.get(i);
+            flip(i, pile.size() - 1, pile.get(pile.size() - 1));
+            pile.remove(pile.size() - 1);
+            putBackOnPack();
+            moveGenerator.boardPileChanged(i, pile);
+        }
+        checkHash();
+    }
 
+    //Undoes finishDealRound
+    public void takeBackFromDeck(int toDeck) {
+        for (int i = 0; i < toDeck; i++) {
+            flip(Zobrist.DECK, deck.size() - 1, deck.peek());
+            deck.pop();
+            putBackOnPack();
+        }
+        //No round out if we've gone back to the start
+        setCanAddToDeckFromBoard(toDeck > 0);
+        dealState = dealStateOfPosition();
+        checkHash();
+    }
+
+    /**
+     * Turns over the top card of the deck. The hand goes back to its place on the board and the pile matching the
+     * card, with the card on top, becomes the hand. Returns the old hand, or null if it had no place.
+     */
+    public Hand turnOverDeck() {
+        Hand prevHand = null;
+        toggleHand();
+        //Do this first in case we get the same index twice in a row!
+        if (hand != null && hand.getIndex() != -1) {
+            prevHand = hand;
+            board.set(prevHand.getIndex(), prevHand.getList());
+            toggle(prevHand.getIndex(), prevHand.getList(), 0);
+            moveGenerator.boardPileChanged(prevHand.getIndex(), prevHand.getList());
+        }
+        int index = deck.peek().getRank().ordinal();
+        List<Card> toBeHand = board.get(index);
+        toggle(index, toBeHand, 0);
+        flip(Zobrist.DECK, deck.size() - 1, deck.peek());
+        toBeHand.add(deck.pop());
+        hand = new Hand(toBeHand, index);
+        //Nothing there.
+        board.set(index, new Pile());
+        toggleHand();
+        moveGenerator.boardPileChanged(index, board.get(index));
+        moveGenerator.handChanged(hand);
+        checkHash();
+        return prevHand;
+    }
+
+    //Undoes turnOverDeck
+    public void takeBackDeckTurn(Hand prevHand) {
+        toggleHand();
+        List<Card> handList = hand.getList();
+        //Must be the last one as was just done
+        deck.push(handList.remove(handList.size() - 1));
+        flip(Zobrist.DECK, deck.size() - 1, deck.peek());
+        if (hand.getIndex() != -1) {
+            board.set(hand.getIndex(), handList);
+            toggle(hand.getIndex(), handList, 0);
+            moveGenerator.boardPileChanged(hand.getIndex(), handList);
+        }
+        hand = prevHand;
+        if (prevHand != null) {
+            //Nothing there
+            toggle(prevHand.getIndex(), board.get(prevHand.getIndex()), 0);
+            board.set(prevHand.getIndex(), new Pile());
+            moveGenerator.boardPileChanged(prevHand.getIndex(), board.get(prevHand.getIndex()));
         }
-        KeyboardFocusManager.getCurrentKeyboardFocusManager().removeKeyEventDispatcher(dispatcher);
+        toggleHand();
+        moveGenerator.handChanged(hand);
+        checkHash();
     }
 
-    private void makePacks(List<Card> cardList) {
+    //True if the next confirmation ends the deal
+    private boolean isLastDealRound() {
+        return packLeft() - 1 <= LAST_ROUND_PACK_SIZE;
+    }
+
+    private static void makePacks(List<Card> cardList) {
         for (Card.Suit suit : Card.Suit.values()) {
             //No kings.
             for (int i = 0; i < Card.Rank.values().length - 1; i++) {
@@ -175,7 +421,10 @@ public class CardGame {
     }
 
     public void setHand(Hand hand) {
+        toggleHand();
         this.hand = hand;
+        toggleHand();
+        moveGenerator.handChanged(hand);
     }
 
     public Stack<Card> getDeck() {
@@ -197,24 +446,87 @@ public class CardGame {
         return true;
     }
 
-    public void restart() {
-        cardFrame.restartGame();
+    public MoveLog getHistory() {
+        return history;
     }
 
-    public Stack<CardMove> getHistory() {
-        return history;
+    /**
+     * Adds a move that has just been made to the history (and the recording if there is one).
+     */
+    public void record(int move) {
+        history.add(move);
+        remember(move);
     }
 
-    public void undo(CardPanel panel) {
-        System.out.println(history);
+    //Tells the recording and the journal about a move, undo or redo
+    private void remember(int move) {
+        if (recording == null && journal == null) {
+            return;
+        }
+        int millis = (int) (System.currentTimeMillis() - startTime);
+        if (recording != null) {
+            recording.add(move, millis);
+        }
+        if (journal != null && journal.append(move, millis)) {
+            journal.checkpoint(SavedGame.of(this));
+        }
+    }
+
+    /**
+     * Makes a move as packed by MoveLog (or undoes, for MoveLog.UNDO) without checking it, for playing back
+     * recordings of real games. A move that is the next one to redo is redone, keeping the rest to redo.
+     */
+    public void replayMove(int move) {
+        if (move == MoveLog.UNDO) {
+            undo();
+        } else if (history.canRedo() && history.peekUndone() == move) {
+            redo();
+        } else {
+            MoveLog.replay(this, move);
+            checkHash();
+            record(move);
+        }
+    }
+
+    public Recording getRecording() {
+        return recording;
+    }
+
+    public void undo() {
         if (!history.isEmpty()) {
-            CardMove toUndo = history.peek();
-            if (toUndo.undo(this, panel)) {
-                history.pop();
+            MoveLog.takeBack(this, history.pop());
+            checkHash();
+            remember(MoveLog.UNDO);
+            if (loop != null) {
+                //Took back some of the deal, the player deals again when they're ready
+                promptForDeal();
             }
         }
+    }
+
+    /**
+     * Makes the last move taken back again. Returns false if there isn't one.
+     */
+    public boolean redo() {
+        if (!history.canRedo()) {
+            return false;
+        }
+        int move = history.redo();
+        MoveLog.replay(this, move);
+        checkHash();
+        remember(move);
+        if (loop != null) {
+            promptForDeal();
+        }
+        return true;
+    }
 
+    public long getDealNumber() {
+        return dealNumber;
+    }
 
+    public void setDealNumber(long dealNumber) {
+        this.dealNumber = dealNumber;
     }
 
     public long getStartTime() {
@@ -234,110 +546,265 @@ public class CardGame {
         return kingPiles;
     }
 
-    public String makeHandMove(int indexFrom, int indexTo) {
+    public MoveResult makeHandMove(int indexFrom, int indexTo) {
         List<Card> handList = hand.getList();
-        Card card = handList.remove(indexFrom);
-        if (indexTo < handList.size()) {
-            handList.add(indexTo, card);
+        moveCard(handList, indexFrom, handList, indexTo);
+        return MoveResult.OK;
+    }
+
+    /**
+     * Takes the card at indexFrom and puts it at indexTo (or on top if that is past the top), keeping the hash up to
+     * date. Both lists must be this game's: a board pile, the hand, the deck or a foundation. Moves and their undos
+     * go through here rather than changing the lists themselves.
+     */
+    public void moveCard(List<Card> from, int indexFrom, List<Card> to, int indexTo) {
+        int fromSection = section(from);
+        int toSection = section(to);
+        //Everything above either end shifts, so it all goes out of the hash and back in at its new place
+        if (from == to) {
+            //Only the cards between the two ends shift
+            int lowest = Math.min(indexFrom, indexTo);
+            int end = Math.min(Math.max(indexFrom, indexTo) + 1, from.size());
+            toggle(fromSection, from, lowest, end);
+            move(from, indexFrom, to, indexTo);
+            toggle(toSection, to, lowest, end);
         } else {
-            handList.add(card);
+            toggle(fromSection, from, indexFrom);
+            toggle(toSection, to, indexTo);
+            move(from, indexFrom, to, indexTo);
+            toggle(fromSection, from, indexFrom);
+            toggle(toSection, to, indexTo);
+        }
+        cardsChanged(fromSection, from);
+        if (to != from) {
+            cardsChanged(toSection, to);
+        }
+        checkHash();
+    }
+
+    private void cardsChanged(int section, List<Card> cards) {
+        if (section < BOARD_PILES) {
+            moveGenerator.boardPileChanged(section, cards);
+        } else if (section == Zobrist.HAND) {
+            moveGenerator.handChanged(hand);
+        }
+    }
+
+    private static void move(List<Card> from, int indexFrom, List<Card> to, int indexTo) {
+        Card card = from.remove(indexFrom);
+        if (indexTo < to.size()) {
+            to.add(indexTo, card);
+        } else {
+            to.add(card);
+        }
+    }
+
+    //Which part of the position the list is, see Zobrist
+    private int section(List<Card> cards) {
+        if (hand != null && cards == hand.getList()) {
+            return Zobrist.HAND;
+        }
+        for (int i = 0; i < board.size(); i++) {
+            if (cards == board.get(i)) {
+                return i;
+            }
         }
-        return "";
+        if (cards == deck) {
+            return Zobrist.DECK;
+        }
+        for (int i = 0; i < 4; i++) {
+            if (cards == kingPiles.get(i)) {
+                return Zobrist.KING_PILES + i;
+            }
+            if (cards == acePiles.get(i)) {
+                return Zobrist.ACE_PILES + i;
+            }
+        }
+        throw new IllegalArgumentException("Not one of this game's piles");
     }
 
-    public String moveCardOntoAceFromBoard(int indexFrom, int indexTo) {
+    //Xors the keys of the cards from index up into the hash, taking them out if they were in
+    private void toggle(int section, List<Card> cards, int from) {
+        toggle(section, cards, from, cards.size());
+    }
+
+    private void toggle(int section, List<Card> cards, int from, int end) {
+        for (int i = from; i < end; i++) {
+            flip(section, i, cards.get(i));
+        }
+    }
+
+    //Puts the card's key in the hash and its section's hash, or takes it out
+    private void flip(int section, int position, Card card) {
+        long key = Zobrist.card(section, position, card);
+        hash ^= key;
+        sectionHashes[section] ^= key;
+    }
+
+    private void toggleHand() {
+        if (hand == null) {
+            hash ^= Zobrist.handIndex(-1);
+        } else {
+            hash ^= Zobrist.handIndex(hand.getIndex());
+            toggle(Zobrist.HAND, hand.getList(), 0);
+        }
+    }
+
+    /**
+     * The position's Zobrist hash, equal positions having equal hashes. Kept up to date as the game changes, so
+     * this costs nothing.
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * The part of getHash() that comes from the cards in one section, as numbered in Zobrist.
+     */
+    long getSectionHash(int section) {
+        return sectionHashes[section];
+    }
+
+    public MoveGenerator getMoveGenerator() {
+        return moveGenerator;
+    }
+
+    //Works out the hash and move index again, for when the lists have been changed wholesale
+    void rehash() {
+        hash = Zobrist.of(this, sectionHashes);
+        moveGenerator.rebuild(this);
+        dealState = dealStateOfPosition();
+    }
+
+    private void checkHash() {
+        if (Zobrist.VERIFY) {
+            long[] sections = new long[Zobrist.SECTIONS];
+            long fresh = Zobrist.of(this, sections);
+            if (hash != fresh || !Arrays.equals(sectionHashes, sections)) {
+                throw new IllegalStateException("Hash " + hash + " should be " + fresh);
+            }
+        }
+    }
+
+    public MoveResult moveCardOntoAceFromBoard(int indexFrom, int indexTo) {
         List<Card> from = board.get(indexFrom);
         return moveCardOntoAcePile(from, -1, indexTo);
     }
 
-    public String moveCardOntoKingFromBoard(int indexFrom, int indexTo) {
+    public MoveResult moveCardOntoKingFromBoard(int indexFrom, int indexTo) {
         List<Card> from = board.get(indexFrom);
         return moveCardOntoKingPile(from, -1, indexTo);
     }
 
-    public String moveCardOntoAceFromKing(int indexFrom, int indexTo) {
+    public MoveResult moveCardOntoAceFromKing(int indexFrom, int indexTo) {
         List<Card> from = kingPiles.get(indexFrom);
         if (from.size() == 1) {
-            return wouldMakePileEmpty();
+            return MoveResult.LAST_CARD;
         } else {
             return moveCardOntoAcePile(from, -1, indexTo);
         }
     }
 
-    public String moveCardOntoKingFromAce(int indexFrom, int indexTo) {
+    public MoveResult moveCardOntoKingFromAce(int indexFrom, int indexTo) {
         List<Card> from = acePiles.get(indexFrom);
         if (from.size() == 1) {
-            return wouldMakePileEmpty();
+            return MoveResult.LAST_CARD;
         } else {
             return moveCardOntoKingPile(from, -1, indexTo);
         }
     }
 
-    private String wouldMakePileEmpty() {
-        return "Cannot move the last card of this pile.";
-    }
-
-    public String moveCardOntoAceFromHand(int indexFrom, int indexTo) {
+    public MoveResult moveCardOntoAceFromHand(int indexFrom, int indexTo) {
         return moveCardOntoAcePile(hand.getList(), indexFrom, indexTo);
     }
 
-    public String moveCardOntoKingFromHand(int indexFrom, int indexTo) {
+    public MoveResult moveCardOntoKingFromHand(int indexFrom, int indexTo) {
         return moveCardOntoKingPile(hand.getList(), indexFrom, indexTo);
     }
 
-    private String moveCardOntoKingPile(List<Card> from, int indexFrom, int indexTo) {
+    /**
+     * Whether the card could go on top of the king pile, without moving it.
+     */
+    public boolean canMoveOntoKingPile(Card toMove, int indexTo) {
         List<Card> toPile = kingPiles.get(indexTo);
-        if (indexFrom == -1) indexFrom = from.size() - 1;
+        Card pileTop = toPile.get(toPile.size() - 1);
+        return toMove.getSuit() == pileTop.getSuit() && toMove.getRank().ordinal() == pileTop.getRank().ordinal() - 1;
+    }
 
-        Card toMove = from.get(indexFrom);
-        //Assumes at least one card remaining.
+    /**
+     * Whether the card could go on top of the ace pile, without moving it.
+     */
+    public boolean canMoveOntoAcePile(Card toMove, int indexTo) {
+        List<Card> toPile = acePiles.get(indexTo);
         Card pileTop = toPile.get(toPile.size() - 1);
-        if (toMove.getSuit().ordinal() == pileTop.getSuit().ordinal()) {
-            if (toMove.getRank().ordinal() == pileTop.getRank().ordinal() - 1) {
-                toPile.add(from.remove(indexFrom));
-                return "";
-            } else {
-                return toMove.getRank().name() + " is not one lower than " + pileTop.getRank().name();
-            }
+        return toMove.getSuit() == pileTop.getSuit() && toMove.getRank().ordinal() == pileTop.getRank().ordinal() + 1;
+    }
 
-        } else {
-            return "Can only move to a pile of the same suit";
+    /**
+     * As canMoveOntoKingPile, but saying why not.
+     */
+    public MoveResult checkOntoKingPile(Card toMove, int indexTo) {
+        List<Card> toPile = kingPiles.get(indexTo);
+        //Assumes at least one card remaining.
+        Card pileTop = toPile.get(toPile.size() - 1);
+        if (toMove.getSuit() != pileTop.getSuit()) {
+            return MoveResult.WRONG_SUIT;
         }
-
+        return canMoveOntoKingPile(toMove, indexTo) ? MoveResult.OK : MoveResult.NOT_ONE_LOWER;
     }
 
-    private String moveCardOntoAcePile(List<Card> from, int indexFrom, int indexTo) {
+    /**
+     * As canMoveOntoAcePile, but saying why not.
+     */
+    public MoveResult checkOntoAcePile(Card toMove, int indexTo) {
         List<Card> toPile = acePiles.get(indexTo);
-        if (indexFrom == -1) indexFrom = from.size() - 1;
-        Card toMove = from.get(indexFrom);
         //Assumes at least one card remaining.
         Card pileTop = toPile.get(toPile.size() - 1);
-        if (toMove.getSuit().ordinal() == pileTop.getSuit().ordinal()) {
-            if (toMove.getRank().ordinal() == pileTop.getRank().ordinal() + 1) {
-                toPile.add(from.remove(indexFrom));
-                return "";
-            } else {
-                return toMove.getRank().name() + " is not one higher than " + pileTop.getRank().name();
-            }
+        if (toMove.getSuit() != pileTop.getSuit()) {
+            return MoveResult.WRONG_SUIT;
+        }
+        return canMoveOntoAcePile(toMove, indexTo) ? MoveResult.OK : MoveResult.NOT_ONE_HIGHER;
+    }
 
-        } else {
-            return "Can only move to a pile of the same suit";
+    private MoveResult moveCardOntoKingPile(List<Card> from, int indexFrom, int indexTo) {
+        if (indexFrom == -1) indexFrom = from.size() - 1;
+        MoveResult result = checkOntoKingPile(from.get(indexFrom), indexTo);
+        if (result.isOk()) {
+            List<Card> toPile = kingPiles.get(indexTo);
+            moveCard(from, indexFrom, toPile, toPile.size());
         }
+        return result;
+    }
 
+    private MoveResult moveCardOntoAcePile(List<Card> from, int indexFrom, int indexTo) {
+        if (indexFrom == -1) indexFrom = from.size() - 1;
+        MoveResult result = checkOntoAcePile(from.get(indexFrom), indexTo);
+        if (result.isOk()) {
+            List<Card> toPile = acePiles.get(indexTo);
+            moveCard(from, indexFrom, toPile, toPile.size());
+        }
+        return result;
     }
 
     public boolean canAddToDeckFromBoard() {
         return canAddToDeckFromBoard;
     }
 
-    public String addToDeck(int indexFrom) {
+    /**
+     * Whether the board pile's top card can go on the deck during the deal. It has to match the pile's position.
+     */
+    public boolean canAddToDeck(int indexFrom) {
+        List<Card> cards = board.get(indexFrom);
+        return cards.size() > 0 && cards.get(cards.size() - 1).getRank().ordinal() == indexFrom;
+    }
+
+    public MoveResult addToDeck(int indexFrom) {
         List<Card> cards = board.get(indexFrom);
-        Card topCard = cards.get(cards.size() - 1);
-        if (topCard.getRank().ordinal() == indexFrom) {
-            deck.push(cards.remove(cards.size() - 1));
-            return "";
+        if (canAddToDeck(indexFrom)) {
+            moveCard(cards, cards.size() - 1, deck, deck.size());
+            return MoveResult.OK;
         } else {
-            return "Cannot add that to the deck, wrong rank";
+            return MoveResult.WRONG_RANK_FOR_DECK;
         }
     }
 
@@ -345,12 +812,74 @@ public class CardGame {
         return hasDealt;
     }
 
-    public ArrayList<Card> getPack() {
+    /**
+     * The cards still to be dealt, next first, or null once there's no pack. A view, so don't change it.
+     */
+    public List<Card> getPack() {
+        return pack == null ? null : pack.subList(packNext, pack.size());
+    }
+
+    void setPack(ArrayList<Card> pack) {
+        this.pack = pack;
+        packNext = 0;
+    }
+
+    //The pack with the cards already dealt from it, null if there isn't one
+    List<Card> getWholePack() {
         return pack;
     }
 
+    int getPackNext() {
+        return packNext;
+    }
+
+    /**
+     * Carries on a saved game once the position and history are back: puts back the dealt part of the pack (so
+     * deals can be taken back), the clock, the recording and where the deal was up to, then shows it. Run on the
+     * game loop.
+     */
+    void resume(long dealNumber, long playedMillis, ArrayList<Card> wholePack, int packNext, DealState dealState, int[] recorded) {
+        this.dealNumber = dealNumber;
+        startTime = System.currentTimeMillis() - playedMillis;
+        pack = wholePack;
+        this.packNext = packNext;
+        if (loop != null) {
+            recording = new Recording(dealNumber, startTime, recorded);
+        }
+        rehash();
+        //Never saved part way through a round, but the position says where that would have got to
+        if (dealState != DealState.DEALING_ROUND) {
+            this.dealState = dealState;
+        }
+        if (journal != null) {
+            //The journal carries on from here rather than the deal
+            journal.checkpoint(SavedGame.of(this));
+        }
+        publish();
+        view.refresh();
+        promptForDeal();
+    }
+
+    void setHasDealt(boolean hasDealt) {
+        if (this.hasDealt != hasDealt) {
+            hash ^= Zobrist.HAS_DEALT;
+        }
+        this.hasDealt = hasDealt;
+    }
+
 
     public void setCanAddToDeckFromBoard(boolean canAddToDeckFromBoard) {
+        if (this.canAddToDeckFromBoard != canAddToDeckFromBoard) {
+            hash ^= Zobrist.CAN_ADD_TO_DECK;
+        }
         this.canAddToDeckFromBoard = canAddToDeckFromBoard;
     }
+
+    /**
+     * The deal goes AWAITING_CONFIRM, then DEALING_ROUND and AWAITING_DECK_ADDS for each round (the player can put
+     * cards on the deck while it waits), then DONE. Taking a deal back goes back to waiting.
+     */
+    public enum DealState {
+        AWAITING_CONFIRM, DEALING_ROUND, AWAITING_DECK_ADDS, DONE
+    }
 }
@@ -0,0 +1,254 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * A whole position packed into one fixed length byte array, for code that has to store or compare lots of them.
+ * Cards are one byte each (suit * 13 + rank). The king and ace piles always run in order from their king or ace
+ * so only their sizes are kept.
+ * <p>
+ * Layout: the 4 king pile sizes, the 4 ace pile sizes, the hand index + 1, flags, then the lengths of the 12 board
+ * piles, the deck, the hand and the pack, then the cards of each of those in that order, bottom card first.
+ * Anything after the last card is left as zero so equal positions have equal arrays.
+ */
+public final class CompactState {
+    public static final int BOARD_PILES = 12;
+    //Cards that aren't the king and ace each pile starts with
+    public static final int MAX_LOOSE_CARDS = 92;
+
+    private static final int KING_SIZES = 0;
+    private static final int ACE_SIZES = 4;
+    private static final int HAND_INDEX = 8;
+    private static final int FLAGS = 9;
+    private static final int LENGTHS = 10;
+    private static final int DECK_SECTION = BOARD_PILES;
+    private static final int HAND_SECTION = BOARD_PILES + 1;
+    private static final int PACK_SECTION = BOARD_PILES + 2;
+    private static final int SECTIONS = BOARD_PILES + 3;
+    private static final int CARDS = LENGTHS + SECTIONS;
+    public static final int LENGTH = CARDS + MAX_LOOSE_CARDS;
+
+    private static final int HAS_DEALT = 1;
+    private static final int CAN_ADD_TO_DECK = 1 << 1;
+    private static final int HAS_PACK = 1 << 2;
+
+    private final byte[] data;
+    //0 until worked out
+    private int hash;
+
+    private CompactState(byte[] data) {
+        this.data = data;
+    }
+
+    public static CompactState of(CardGame game) {
+        byte[] data = new byte[LENGTH];
+        encode(game, data);
+        return new CompactState(data);
+    }
+
+    /**
+     * The position written by encode, the array being kept rather than copied.
+     */
+    static CompactState wrap(byte[] data) {
+        return new CompactState(data);
+    }
+
+    /**
+     * Writes the game into an existing array of LENGTH bytes, so a caller can reuse one array.
+     */
+    public static void encode(CardGame game, byte[] data) {
+        Arrays.fill(data, (byte) 0);
+        List<List<Card>> kingPiles = game.getKingPiles();
+        List<List<Card>> acePiles = game.getAcePiles();
+        for (int i = 0; i < kingPiles.size(); i++) {
+            data[KING_SIZES + i] = (byte) kingPiles.get(i).size();
+        }
+        for (int i = 0; i < acePiles.size(); i++) {
+            data[ACE_SIZES + i] = (byte) acePiles.get(i).size();
+        }
+        Hand hand = game.getHand();
+        data[HAND_INDEX] = (byte) (hand == null ? 0 : hand.getIndex() + 1);
+        data[FLAGS] = (byte) ((game.hasDealt() ? HAS_DEALT : 0)
+                | (game.canAddToDeckFromBoard() ? CAN_ADD_TO_DECK : 0)
+                | (game.getPack() != null ? HAS_PACK : 0));
+
+        int next = CARDS;
+        List<List<Card>> board = game.getBoard();
+        for (int i = 0; i < board.size(); i++) {
+            next = encodeSection(board.get(i), i, data, next);
+        }
+        next = encodeSection(game.getDeck(), DECK_SECTION, data, next);
+        if (hand != null) {
+            next = encodeSection(hand.getList(), HAND_SECTION, data, next);
+        }
+        if (game.getPack() != null) {
+            encodeSection(game.getPack(), PACK_SECTION, data, next);
+        }
+    }
+
+    private static int encodeSection(List<Card> cards, int section, byte[] data, int next) {
+        data[LENGTHS + section] = (byte) cards.size();
+        for (Card card : cards) {
+            data[next++] = (byte) code(card);
+        }
+        return next;
+    }
+
+    /**
+     * Puts the game into this position. The history is cleared as the moves that led here aren't known.
+     * Must be run on the game loop (or on a game nothing else is using).
+     */
+    public void applyTo(CardGame game) {
+        List<List<Card>> kingPiles = game.getKingPiles();
+        List<List<Card>> acePiles = game.getAcePiles();
+        kingPiles.clear();
+        acePiles.clear();
+        for (int i = 0; i < 4; i++) {
+            Card.Suit suit = CardGame.FOUNDATION_SUITS[i];
+            Pile kingPile = new Pile();
+            for (int j = 0; j < data[KING_SIZES + i]; j++) {
+                kingPile.add(new Card(suit, Card.Rank.values()[Card.Rank.KING.ordinal() - j], true));
+            }
+            kingPiles.add(kingPile);
+            Pile acePile = new Pile();
+            for (int j = 0; j < data[ACE_SIZES + i]; j++) {
+                acePile.add(new Card(suit, Card.Rank.values()[Card.Rank.ACE.ordinal() + j], true));
+            }
+            acePiles.add(acePile);
+        }
+
+        int next = CARDS;
+        List<List<Card>> board = game.getBoard();
+        board.clear();
+        for (int i = 0; i < BOARD_PILES; i++) {
+            Pile pile = new Pile();
+            next = decodeSection(i, pile, next);
+            board.add(pile);
+        }
+        Stack<Card> deck = game.getDeck();
+        deck.clear();
+        next = decodeSection(DECK_SECTION, deck, next);
+        Pile handList = new Pile();
+        next = decodeSection(HAND_SECTION, handList, next);
+        game.setHand(new Hand(handList, data[HAND_INDEX] - 1));
+        if ((data[FLAGS] & HAS_PACK) != 0) {
+            ArrayList<Card> pack = new ArrayList<Card>(data[LENGTHS + PACK_SECTION]);
+            decodeSection(PACK_SECTION, pack, next);
+            game.setPack(pack);
+        } else {
+            game.setPack(null);
+        }
+        game.setHasDealt((data[FLAGS] & HAS_DEALT) != 0);
+        game.setCanAddToDeckFromBoard((data[FLAGS] & CAN_ADD_TO_DECK) != 0);
+        game.rehash();
+        game.getHistory().clear();
+    }
+
+    private int decodeSection(int section, List<Card> into, int next) {
+        int length = data[LENGTHS + section];
+        for (int i = 0; i < length; i++) {
+            into.add(card(data[next++]));
+        }
+        return next;
+    }
+
+    public static int code(Card card) {
+        return card.getSuit().ordinal() * 13 + card.getRank().ordinal();
+    }
+
+    public static Card card(int code) {
+        return new Card(Card.Suit.values()[code / 13], Card.Rank.values()[code % 13], true);
+    }
+
+    public CompactState copy() {
+        CompactState copy = new CompactState(data.clone());
+        copy.hash = hash;
+        return copy;
+    }
+
+    public int getKingPileSize(int index) {
+        return data[KING_SIZES + index];
+    }
+
+    public int getAcePileSize(int index) {
+        return data[ACE_SIZES + index];
+    }
+
+    public int getHandIndex() {
+        return data[HAND_INDEX] - 1;
+    }
+
+    public int getBoardPileSize(int index) {
+        return data[LENGTHS + index];
+    }
+
+    public int getDeckSize() {
+        return data[LENGTHS + DECK_SECTION];
+    }
+
+    public int getHandSize() {
+        return data[LENGTHS + HAND_SECTION];
+    }
+
+    public int getPackSize() {
+        return data[LENGTHS + PACK_SECTION];
+    }
+
+    public boolean hasDealt() {
+        return (data[FLAGS] & HAS_DEALT) != 0;
+    }
+
+    /**
+     * The code of a card on a board pile, 0 being the bottom card.
+     */
+    public int getBoardCard(int pile, int index) {
+        return data[sectionStart(pile) + index];
+    }
+
+    public int getDeckCard(int index) {
+        return data[sectionStart(DECK_SECTION) + index];
+    }
+
+    public int getHandCard(int index) {
+        return data[sectionStart(HAND_SECTION) + index];
+    }
+
+    public int getPackCard(int index) {
+        return data[sectionStart(PACK_SECTION) + index];
+    }
+
+    private int sectionStart(int section) {
+        int start = CARDS;
+        for (int i = 0; i < section; i++) {
+            start += data[LENGTHS + i];
+        }
+        return start;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CompactState that = (CompactState) o;
+        return hashCode() == that.hashCode() && Arrays.equals(data, that.data);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = hash;
+        if (result == 0) {
+            result = Arrays.hashCode(data);
+            hash = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactState" + Arrays.toString(data);
+    }
+}
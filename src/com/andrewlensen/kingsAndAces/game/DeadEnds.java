@@ -0,0 +1,206 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import java.util.List;
+
+/**
+ * Spots positions that can't be won any more, cheaply enough to check after every move. It only ever answers
+ * true when the game really is lost, but it doesn't catch every lost game.
+ * <p>
+ * Two checks, both only once the deal is done:
+ * <ul>
+ * <li>Stuck: the deck is empty and no card the player can get at goes on a foundation, even after sliding
+ * cards between a suit's king and ace piles.</li>
+ * <li>Blocked: a board pile whose rank is no longer in the deck can't become the hand again, so its cards have to
+ * go on from the top down. A card can only go on its ace pile once a copy of every rank below it (from the two)
+ * is on, or its king pile once a copy of every rank above it (to the queen) is on. Everything that can be got at
+ * is played out under just those rules, which are looser than the real ones, and if some card still can't be
+ * reached the real game can't reach it either. This catches same suit cards buried under each other as well as
+ * longer chains through several piles and suits.</li>
+ * </ul>
+ */
+public class DeadEnds {
+    private static final int RANKS = Card.Rank.values().length;
+    private static final int QUEEN = Card.Rank.QUEEN.ordinal();
+    private static final int KING = Card.Rank.KING.ordinal();
+
+    private DeadEnds() {
+    }
+
+    /**
+     * True if the game can't be won from here.
+     */
+    public static boolean isDead(CardGame game) {
+        return isDead(game, 0);
+    }
+
+    /**
+     * As isDead(game), but the board piles in free (one bit each) count as the reserve the way Solver sees
+     * them, with every card available.
+     */
+    static boolean isDead(CardGame game, int free) {
+        if (!game.hasDealt() || game.hasWon()) {
+            return false;
+        }
+        return isStuck(game, free) || isBlocked(game, free);
+    }
+
+    private static boolean isStuck(CardGame game, int free) {
+        if (!game.getDeck().isEmpty()) {
+            return false;
+        }
+        //For each suit, the ranks that can go on now, one bit each
+        int[] wanted = new int[Card.Suit.values().length];
+        for (int i = 0; i < CardGame.FOUNDATION_SUITS.length; i++) {
+            int aceTop = game.getAcePiles().get(i).size() - 1;
+            int kingTop = KING - (game.getKingPiles().get(i).size() - 1);
+            int suit = CardGame.FOUNDATION_SUITS[i].ordinal();
+            if (kingTop == aceTop + 1) {
+                //Sliding between the piles can put the gap anywhere
+                wanted[suit] = ~0;
+            } else {
+                wanted[suit] = (1 << (aceTop + 1)) | (kingTop > 0 ? 1 << (kingTop - 1) : 0);
+            }
+        }
+        List<List<Card>> board = game.getBoard();
+        for (int i = 0; i < board.size(); i++) {
+            List<Card> pile = board.get(i);
+            int from = (free & (1 << i)) != 0 ? 0 : pile.size() - 1;
+            for (int j = Math.max(from, 0); j < pile.size(); j++) {
+                if (isWanted(wanted, pile.get(j))) {
+                    return false;
+                }
+            }
+        }
+        Hand hand = game.getHand();
+        if (hand != null) {
+            for (Card card : hand.getList()) {
+                if (isWanted(wanted, card)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWanted(int[] wanted, Card card) {
+        return (wanted[card.getSuit().ordinal()] & (1 << card.getRank().ordinal())) != 0;
+    }
+
+    private static boolean isBlocked(CardGame game, int free) {
+        int suits = Card.Suit.values().length;
+        //Copies of each card on the foundations, not counting the king and ace each pile starts with
+        int[] placed = new int[suits * RANKS];
+        for (int i = 0; i < CardGame.FOUNDATION_SUITS.length; i++) {
+            int suit = CardGame.FOUNDATION_SUITS[i].ordinal() * RANKS;
+            for (int rank = 1; rank < game.getAcePiles().get(i).size(); rank++) {
+                placed[suit + rank]++;
+            }
+            for (int j = 1; j < game.getKingPiles().get(i).size(); j++) {
+                placed[suit + KING - j]++;
+            }
+        }
+        //Copies of each card that can be got at in any order: the deck, the hand and piles that will be the hand
+        int[] loose = new int[suits * RANKS];
+        int deckRanks = 0;
+        for (Card card : game.getDeck()) {
+            deckRanks |= 1 << card.getRank().ordinal();
+            loose[CompactState.code(card)]++;
+        }
+        Hand hand = game.getHand();
+        if (hand != null) {
+            for (Card card : hand.getList()) {
+                loose[CompactState.code(card)]++;
+            }
+        }
+        List<List<Card>> board = game.getBoard();
+        //How many cards are left on each pile that has to be played from the top down
+        int[] heights = new int[board.size()];
+        for (int i = 0; i < board.size(); i++) {
+            List<Card> pile = board.get(i);
+            if ((free & (1 << i)) != 0 || (deckRanks & (1 << i)) != 0) {
+                for (Card card : pile) {
+                    loose[CompactState.code(card)]++;
+                }
+            } else {
+                heights[i] = pile.size();
+            }
+        }
+
+        //Any card from the two up to lowest can go on its ace pile, and any from highest up on its king pile.
+        //Only putting on the card at lowest or highest moves them, so the loose cards needn't be gone through.
+        int[] lowest = new int[suits];
+        int[] highest = new int[suits];
+        for (int suit = 0; suit < suits; suit++) {
+            lowest[suit] = 1;
+            highest[suit] = QUEEN;
+            widen(suit, placed, loose, lowest, highest);
+        }
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int i = 0; i < heights.length; i++) {
+                List<Card> pile = board.get(i);
+                while (heights[i] > 0) {
+                    int code = CompactState.code(pile.get(heights[i] - 1));
+                    int suit = code / RANKS;
+                    int rank = code % RANKS;
+                    //Nothing goes on an ace pile below the two
+                    if (!(rank > 0 && rank <= lowest[suit]) && rank < highest[suit]) {
+                        break;
+                    }
+                    placed[code]++;
+                    heights[i]--;
+                    widen(suit, placed, loose, lowest, highest);
+                    progress = true;
+                }
+            }
+        }
+        for (int height : heights) {
+            if (height > 0) {
+                return true;
+            }
+        }
+        //Loose cards that never got between lowest and highest
+        for (int suit = 0; suit < suits; suit++) {
+            //The ace only goes on the king pile
+            if (highest[suit] > 0 && loose[suit * RANKS] > 0) {
+                return true;
+            }
+            for (int rank = lowest[suit] + 1; rank < highest[suit]; rank++) {
+                if (loose[suit * RANKS + rank] > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    //Moves lowest up and highest down as far as the cards already on and the loose cards allow
+    private static void widen(int suit, int[] placed, int[] loose, int[] lowest, int[] highest) {
+        int start = suit * RANKS;
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            while (lowest[suit] <= QUEEN && take(start + lowest[suit], placed, loose)) {
+                lowest[suit]++;
+                moved = true;
+            }
+            while (highest[suit] >= 0 && take(start + highest[suit], placed, loose)) {
+                highest[suit]--;
+                moved = true;
+            }
+        }
+    }
+
+    //True if a copy of the card is on, putting on a loose one if need be
+    private static boolean take(int code, int[] placed, int[] loose) {
+        if (placed[code] == 0) {
+            if (loose[code] == 0) {
+                return false;
+            }
+            loose[code]--;
+            placed[code]++;
+        }
+        return true;
+    }
+}
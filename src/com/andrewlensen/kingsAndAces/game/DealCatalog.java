@@ -0,0 +1,109 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every deal has a 64 bit deal number that always gives the same pack order, so games can be replayed, shared and
+ * benchmarked. A catalog is a fixed list of deal numbers made from one seed, so runs can all use the same deals.
+ * <p>
+ * The pack is shuffled as card codes (see CompactState.code) with a Fisher-Yates shuffle driven by SplitMix64, so
+ * nothing is boxed and nothing is allocated if the caller reuses the array.
+ */
+public class DealCatalog {
+    //Codes of the unshuffled pack, in the order CardGame.newPack() makes it
+    private static final byte[] PACK_CODES = packCodes();
+    public static final int PACK_SIZE = PACK_CODES.length;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+
+    public DealCatalog(long seed) {
+        this.seed = seed;
+    }
+
+    private static byte[] packCodes() {
+        List<Card> pack = CardGame.newPack();
+        byte[] codes = new byte[pack.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = (byte) CompactState.code(pack.get(i));
+        }
+        return codes;
+    }
+
+    /**
+     * The index'th deal number of this catalog. Constant time, so any part of a catalog can be read without the rest.
+     */
+    public long get(long index) {
+        return mix(seed + (index + 1) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * The first count deal numbers of this catalog.
+     */
+    public long[] first(int count) {
+        long[] dealNumbers = new long[count];
+        for (int i = 0; i < count; i++) {
+            dealNumbers[i] = get(i);
+        }
+        return dealNumbers;
+    }
+
+    /**
+     * A new deal number for a game nobody asked for a particular deal of.
+     */
+    public static long randomDealNumber() {
+        return mix(System.nanoTime() ^ Thread.currentThread().getId() * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Writes the shuffled card codes of the deal into codes, which must hold PACK_SIZE.
+     */
+    public static void shuffle(long dealNumber, byte[] codes) {
+        System.arraycopy(PACK_CODES, 0, codes, 0, PACK_SIZE);
+        long state = dealNumber;
+        for (int i = PACK_SIZE - 1; i > 0; i--) {
+            //Lemire's multiply and shift to get 0..i, rejecting the few products that would bias it. % is only
+            //needed on the rare draw that might be rejected.
+            long bound = i + 1;
+            state += GOLDEN_GAMMA;
+            long product = (mix(state) >>> 32) * bound;
+            if ((product & 0xFFFFFFFFL) < bound) {
+                long threshold = (1L << 32) % bound;
+                while ((product & 0xFFFFFFFFL) < threshold) {
+                    state += GOLDEN_GAMMA;
+                    product = (mix(state) >>> 32) * bound;
+                }
+            }
+            int j = (int) (product >>> 32);
+            byte swap = codes[i];
+            codes[i] = codes[j];
+            codes[j] = swap;
+        }
+    }
+
+    /**
+     * The shuffled pack for a deal, top card first, ready for CardGame.setUp.
+     */
+    public static ArrayList<Card> pack(long dealNumber) {
+        byte[] codes = new byte[PACK_SIZE];
+        shuffle(dealNumber, codes);
+        ArrayList<Card> pack = new ArrayList<Card>(PACK_SIZE);
+        for (byte code : codes) {
+            pack.add(CompactState.card(code));
+        }
+        return pack;
+    }
+
+    //SplitMix64's finaliser
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+}
@@ -0,0 +1,79 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+import com.andrewlensen.kingsAndAces.game.moves.CardMoveImpl;
+import com.andrewlensen.kingsAndAces.game.moves.MoveResult;
+
+import java.util.List;
+
+/**
+ * Plays a CardGame with no window, game loop or animation, for solvers and simulations.
+ * Not thread safe, use one engine per thread.
+ */
+public class GameEngine {
+    private final CardGame game;
+
+    public GameEngine(CardGame game) {
+        this.game = game;
+    }
+
+    /**
+     * The deal with its kings and aces out, ready for the first DealMove.
+     */
+    public static GameEngine newGame(long dealNumber) {
+        CardGame game = new CardGame();
+        game.setDealNumber(dealNumber);
+        game.setUp(DealCatalog.pack(dealNumber));
+        return new GameEngine(game);
+    }
+
+    /**
+     * Every move that would succeed from here. Moving a hand card onto itself is left out.
+     */
+    public List<CardMove> legalMoves() {
+        return game.getMoveGenerator().legalMoves(game);
+    }
+
+    static CardMove move(int indexFrom, CardMoveImpl.MOVE_TYPE_FROM from, int indexTo, CardMove.MOVE_TYPE_TO to) {
+        CardMoveImpl move = new CardMoveImpl(indexFrom, from);
+        move.cardReleased(indexTo, to);
+        return move;
+    }
+
+    /**
+     * Makes the move, keeping it in the history if it worked. Returns the same result the GUI would show.
+     */
+    public MoveResult apply(CardMove move) {
+        MoveResult result = move.makeMove(game);
+        if (result.isOk()) {
+            game.record(move.encode());
+        }
+        return result;
+    }
+
+    public void undo() {
+        game.undo();
+    }
+
+    /**
+     * Makes the last move undone again, returning false if there isn't one.
+     */
+    public boolean redo() {
+        return game.redo();
+    }
+
+    public boolean isWon() {
+        return game.hasWon();
+    }
+
+    /**
+     * True if the game is lost for sure, see DeadEnds.
+     */
+    public boolean isDeadEnd() {
+        return DeadEnds.isDead(game);
+    }
+
+    public CardGame getGame() {
+        return game;
+    }
+}
@@ -0,0 +1,336 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A write-ahead log of the game being played, so a crash doesn't lose it. Every move, undo and redo is added to the
+ * end of the journal as it's made, and at the next start recover rebuilds the game by playing the journal back from
+ * the deal.
+ * <p>
+ * The game loop only queues moves, the writing is done on the journal's own thread. Moves that arrive while a sync
+ * is going on, or within COMMIT_DELAY_MILLIS of the first, are written and synced together, so a quick run of moves
+ * costs one sync rather than one each. Every CHECKPOINT_EVERY moves the game is saved as a SavedGame checkpoint and
+ * the journal started again from it, so it never gets long.
+ * <p>
+ * The journal starts with MAGIC, VERSION, a generation number, whether it starts from the deal or the checkpoint and
+ * the deal number. Each move is then the move packed as in MoveLog, the milliseconds since the game started and a
+ * check of the two, so a torn or zeroed end left by a crash is spotted and left out. The checkpoint is its
+ * generation followed by the SavedGame. A new journal is only started once its checkpoint is safely written, so if
+ * the checkpoint is newer than the journal it already has everything in the journal.
+ */
+public class GameJournal {
+    //Where the game keeps the journal and its checkpoint
+    public static final File DIR = new File(System.getProperty("user.home"), ".kingsAndAces");
+
+    //"KAAJ"
+    private static final int MAGIC = 0x4B41414A;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 1 + 8;
+    private static final int ENTRY_BYTES = 12;
+    private static final byte FROM_DEAL = 0;
+    private static final byte FROM_CHECKPOINT = 1;
+    //Moves between checkpoints
+    private static final int CHECKPOINT_EVERY = 256;
+    //How long the first move of a batch waits for others to share its sync
+    private static final long COMMIT_DELAY_MILLIS = 5;
+
+    private final File journalFile;
+    private final File checkpointFile;
+    private final BlockingQueue<Op> pending = new LinkedBlockingQueue<Op>();
+    //Only touched on the game loop
+    private int sinceCheckpoint;
+    //Only touched on the journal thread
+    private long generation;
+    private FileChannel channel;
+    private ByteBuffer batch = ByteBuffer.allocate(ENTRY_BYTES * 64);
+
+    public GameJournal(File dir) {
+        journalFile = new File(dir, "journal.kaj");
+        checkpointFile = new File(dir, "checkpoint.kas");
+        //Carry on numbering from what's there, so an old checkpoint can't look newer than a new journal
+        generation = Math.max(readGeneration(journalFile, 8), readGeneration(checkpointFile, 0));
+        Thread writer = new Thread("Journal") {
+            public void run() {
+                writeLoop();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Starts the journal again for a new game. Run on the game loop.
+     */
+    public void newGame(long dealNumber) {
+        sinceCheckpoint = 0;
+        pending.add(new Op(Op.NEW_GAME, 0, 0, dealNumber, null, null));
+    }
+
+    /**
+     * Adds a move (or MoveLog.UNDO) made millis after the game started. Run on the game loop. Returns true when
+     * it's time for a checkpoint.
+     */
+    public boolean append(int move, int millis) {
+        pending.add(new Op(Op.MOVE, move, millis, 0, null, null));
+        return ++sinceCheckpoint >= CHECKPOINT_EVERY;
+    }
+
+    /**
+     * Writes the checkpoint in the background and starts the journal again from it. Run on the game loop.
+     */
+    public void checkpoint(SavedGame saved) {
+        sinceCheckpoint = 0;
+        pending.add(new Op(Op.CHECKPOINT, 0, 0, saved.getDealNumber(), saved, null));
+    }
+
+    /**
+     * Deletes the journal and its checkpoint once what's queued is written, for when the game has been left. Run on
+     * the game loop. The journal starts again with the next newGame.
+     */
+    public void discard() {
+        sinceCheckpoint = 0;
+        pending.add(new Op(Op.DISCARD, 0, 0, 0, null, null));
+    }
+
+    /**
+     * Writes out what's queued and deletes the journal, for when the game has been saved some other way or is
+     * over. Waits up to waitMillis for it to finish. Nothing more is written after this.
+     */
+    public void close(long waitMillis) {
+        CountDownLatch done = new CountDownLatch(1);
+        pending.add(new Op(Op.CLOSE, 0, 0, 0, null, done));
+        try {
+            done.await(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * The game the journal left off at, or null if there isn't one to carry on (no journal, or the game was won).
+     * Must be run before anything is added to the journal.
+     */
+    public SavedGame recover() {
+        if (!journalFile.exists()) {
+            return null;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(journalFile.toPath()));
+            if (in.limit() < HEADER_BYTES || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException(journalFile + " isn't a journal this version can read");
+            }
+            long journalGeneration = in.getLong();
+            byte from = in.get();
+            long dealNumber = in.getLong();
+            SavedGame checkpoint = null;
+            long checkpointGeneration = -1;
+            if (checkpointFile.exists()) {
+                byte[] bytes = Files.readAllBytes(checkpointFile.toPath());
+                checkpointGeneration = ByteBuffer.wrap(bytes).getLong();
+                checkpoint = SavedGame.fromBytes(bytes, 8, bytes.length - 8, checkpointFile.toString());
+            }
+            //A crash between writing a checkpoint and starting its journal
+            if (checkpointGeneration > journalGeneration) {
+                CardGame game = new CardGame();
+                checkpoint.applyTo(game);
+                return game.hasWon() ? null : checkpoint;
+            }
+
+            CardGame game = new CardGame();
+            long playedMillis = 0;
+            int[] recorded;
+            if (from == FROM_CHECKPOINT) {
+                if (checkpointGeneration != journalGeneration) {
+                    throw new IOException("The checkpoint " + journalFile + " starts from is missing");
+                }
+                checkpoint.applyTo(game);
+                playedMillis = checkpoint.getPlayedMillis();
+                recorded = checkpoint.getRecorded();
+            } else {
+                game.setDealNumber(dealNumber);
+                game.setUp(DealCatalog.pack(dealNumber));
+                recorded = new int[0];
+            }
+            int size = recorded.length;
+            recorded = Arrays.copyOf(recorded, size + in.remaining() / ENTRY_BYTES * 2);
+            while (in.remaining() >= ENTRY_BYTES) {
+                int move = in.getInt();
+                int millis = in.getInt();
+                if (in.getInt() != check(move, millis)) {
+                    break;
+                }
+                game.replayMove(move);
+                recorded[size++] = move;
+                recorded[size++] = millis;
+                playedMillis = millis;
+            }
+            if (game.hasWon()) {
+                return null;
+            }
+            return SavedGame.of(game, playedMillis, Arrays.copyOf(recorded, size));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } catch (RuntimeException e) {
+            //A move that doesn't fit the game, the journal can't be trusted
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static int check(int move, int millis) {
+        return Integer.rotateLeft(move * 0x9E3779B1, 13) ^ millis ^ MAGIC;
+    }
+
+    private static long readGeneration(File file, int offset) {
+        if (!file.exists()) {
+            return 0;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.seek(offset);
+                return raf.readLong();
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            try {
+                Op op = pending.take();
+                long commitBy = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COMMIT_DELAY_MILLIS);
+                //Gather moves into one write and one sync, anything else has to wait for them to be on the disk
+                while (op != null && op.kind == Op.MOVE) {
+                    add(op);
+                    op = pending.poll(commitBy - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+                commit();
+                if (op != null && !run(op)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                //Stop journaling this game rather than the game, the next game or checkpoint tries again
+                e.printStackTrace();
+                closeChannel();
+                batch.clear();
+            }
+        }
+    }
+
+    private void add(Op op) {
+        if (batch.remaining() < ENTRY_BYTES) {
+            ByteBuffer bigger = ByteBuffer.allocate(batch.capacity() * 2);
+            batch.flip();
+            bigger.put(batch);
+            batch = bigger;
+        }
+        batch.putInt(op.move).putInt(op.millis).putInt(check(op.move, op.millis));
+    }
+
+    private void commit() throws IOException {
+        if (batch.position() == 0) {
+            return;
+        }
+        batch.flip();
+        if (channel != null) {
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+        }
+        batch.clear();
+    }
+
+    //Returns false once closed
+    private boolean run(Op op) throws IOException {
+        switch (op.kind) {
+            case Op.NEW_GAME:
+                start(FROM_DEAL, op.dealNumber);
+                //Anything there is from an older game
+                checkpointFile.delete();
+                return true;
+            case Op.DISCARD:
+                closeChannel();
+                journalFile.delete();
+                checkpointFile.delete();
+                return true;
+            case Op.CHECKPOINT:
+                closeChannel();
+                byte[] saved = op.saved.toBytes();
+                ByteBuffer bytes = ByteBuffer.allocate(8 + saved.length);
+                bytes.putLong(generation + 1).put(saved);
+                SavedGame.writeAtomically(checkpointFile, bytes.array());
+                start(FROM_CHECKPOINT, op.dealNumber);
+                return true;
+            default:
+                closeChannel();
+                journalFile.delete();
+                checkpointFile.delete();
+                op.done.countDown();
+                return false;
+        }
+    }
+
+    //A new empty journal in place of the old one, numbered one on
+    private void start(byte from, long dealNumber) throws IOException {
+        closeChannel();
+        generation++;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(generation).put(from).putLong(dealNumber);
+        SavedGame.writeAtomically(journalFile, header.array());
+        channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+    //Something for the journal thread to do
+    private static class Op {
+        private static final int MOVE = 0;
+        private static final int NEW_GAME = 1;
+        private static final int CHECKPOINT = 2;
+        private static final int CLOSE = 3;
+        private static final int DISCARD = 4;
+
+        private final int kind;
+        private final int move;
+        private final int millis;
+        private final long dealNumber;
+        private final SavedGame saved;
+        private final CountDownLatch done;
+
+        private Op(int kind, int move, int millis, long dealNumber, SavedGame saved, CountDownLatch done) {
+            this.kind = kind;
+            this.move = move;
+            this.millis = millis;
+            this.dealNumber = dealNumber;
+            this.saved = saved;
+            this.done = done;
+        }
+    }
+}
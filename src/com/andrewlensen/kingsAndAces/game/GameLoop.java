@@ -0,0 +1,47 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Every change to a CardGame goes through here and is run on the one game thread, in the order it was submitted.
+ * Swing only ever submits commands and reads.
+ */
+public class GameLoop {
+    private final BlockingQueue<Runnable> commands = new LinkedBlockingQueue<Runnable>();
+    private final Thread thread;
+
+    public GameLoop() {
+        thread = new Thread("Game loop") {
+            public void run() {
+                while (true) {
+                    try {
+                        runCommand(commands.take());
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        //Don't keep the app alive once the window has gone
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void submit(Runnable command) {
+        commands.add(command);
+    }
+
+    public boolean isLoopThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    private void runCommand(Runnable command) {
+        try {
+            command.run();
+        } catch (RuntimeException e) {
+            //One bad command shouldn't take the game down with it
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.andrewlensen.kingsAndAces.game;
+
+/**
+ * How one finished game went, as kept in StorageManager's results log.
+ */
+public class GameResult {
+    //Deal number, won, elapsed time, moves and undos
+    static final int BYTES = 8 + 1 + 4 + 4 + 4;
+
+    private final long dealNumber;
+    private final boolean won;
+    private final int elapsedMillis;
+    private final int moves;
+    private final int undos;
+
+    public GameResult(long dealNumber, boolean won, int elapsedMillis, int moves, int undos) {
+        this.dealNumber = dealNumber;
+        this.won = won;
+        this.elapsedMillis = elapsedMillis;
+        this.moves = moves;
+        this.undos = undos;
+    }
+
+    /**
+     * The game as it stands now, won or not. Run on the game loop.
+     */
+    public static GameResult of(CardGame game) {
+        Recording recording = game.getRecording();
+        return new GameResult(game.getDealNumber(), game.hasWon(), (int) (System.currentTimeMillis() - game.getStartTime()),
+                game.getNumMoves(), recording == null ? 0 : recording.getUndoCount());
+    }
+
+    public long getDealNumber() {
+        return dealNumber;
+    }
+
+    public boolean isWon() {
+        return won;
+    }
+
+    public int getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public int getMoves() {
+        return moves;
+    }
+
+    public int getUndos() {
+        return undos;
+    }
+}
@@ -0,0 +1,82 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An unchanging copy of what is on the table, published by the game after every change for Swing to draw from.
+ */
+public class GameSnapshot {
+    public static final GameSnapshot EMPTY = new GameSnapshot(Collections.<List<Card>>emptyList(),
+            Collections.<List<Card>>emptyList(), Collections.<List<Card>>emptyList(), new Pile().snapshot(),
+            new Hand(new Pile().snapshot(), -1), false, false);
+
+    private final List<List<Card>> board;
+    private final List<List<Card>> kingPiles;
+    private final List<List<Card>> acePiles;
+    private final List<Card> deck;
+    private final Hand hand;
+    private final boolean hasDealt;
+    private final boolean canAddToDeckFromBoard;
+
+    private GameSnapshot(List<List<Card>> board, List<List<Card>> kingPiles, List<List<Card>> acePiles, List<Card> deck,
+                         Hand hand, boolean hasDealt, boolean canAddToDeckFromBoard) {
+        this.board = board;
+        this.kingPiles = kingPiles;
+        this.acePiles = acePiles;
+        this.deck = deck;
+        this.hand = hand;
+        this.hasDealt = hasDealt;
+        this.canAddToDeckFromBoard = canAddToDeckFromBoard;
+    }
+
+    //Only to be called on the game loop
+    static GameSnapshot of(CardGame game) {
+        Hand hand = game.getHand();
+        Hand frozenHand = hand == null ? null : new Hand(freeze(hand.getList()), hand.getIndex());
+        return new GameSnapshot(freezeAll(game.getBoard()), freezeAll(game.getKingPiles()), freezeAll(game.getAcePiles()),
+                new Pile(game.getDeck()).snapshot(), frozenHand, game.hasDealt(), game.canAddToDeckFromBoard());
+    }
+
+    private static List<List<Card>> freezeAll(List<List<Card>> piles) {
+        List<List<Card>> frozen = new ArrayList<List<Card>>(piles.size());
+        for (List<Card> pile : piles) {
+            frozen.add(freeze(pile));
+        }
+        return Collections.unmodifiableList(frozen);
+    }
+
+    private static List<Card> freeze(List<Card> pile) {
+        //Everything in the game should be a Pile, anything else has to be copied
+        return pile instanceof Pile ? ((Pile) pile).snapshot() : new Pile(pile).snapshot();
+    }
+
+    public List<List<Card>> getBoard() {
+        return board;
+    }
+
+    public List<List<Card>> getKingPiles() {
+        return kingPiles;
+    }
+
+    public List<List<Card>> getAcePiles() {
+        return acePiles;
+    }
+
+    public List<Card> getDeck() {
+        return deck;
+    }
+
+    public Hand getHand() {
+        return hand;
+    }
+
+    public boolean hasDealt() {
+        return hasDealt;
+    }
+
+    public boolean canAddToDeckFromBoard() {
+        return canAddToDeckFromBoard;
+    }
+}
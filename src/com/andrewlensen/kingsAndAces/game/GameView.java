@@ -0,0 +1,27 @@
+package com.andrewlensen.kingsAndAces.game;
+
+/**
+ * What a CardGame tells whatever is showing it. Called on the game loop, after the change has been published.
+ */
+public interface GameView {
+    //For games nobody is watching
+    public static final GameView NONE = new GameView() {
+        @Override
+        public void cardDealt(Card card) {
+        }
+
+        @Override
+        public void showMessage(String text, boolean isError) {
+        }
+
+        @Override
+        public void refresh() {
+        }
+    };
+
+    public void cardDealt(Card card);
+
+    public void showMessage(String text, boolean isError);
+
+    public void refresh();
+}
@@ -0,0 +1,224 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+import com.andrewlensen.kingsAndAces.game.moves.CardMoveImpl;
+import com.andrewlensen.kingsAndAces.game.moves.DealMove;
+import com.andrewlensen.kingsAndAces.game.moves.DeckClickMove;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Works out a hint for the position in the background while the player thinks, so asking for one is instant.
+ * Whenever the position changes the search for the last one is cancelled and a new one started on the hint thread.
+ * It starts with a quick guess (a card onto a foundation if one goes, otherwise the deck) and then runs one Solver
+ * for as long as the player stays on the position, up to the budget, keeping its table the whole time. The best hint
+ * so far is always ready from getHint.
+ * <p>
+ * Once a search finds a win the whole line is kept, so every position along it gets its hint straight away with
+ * no searching, whether the player follows it or undoes back onto it.
+ * <p>
+ * The search works on its own copy of the position, the live game is only read by positionChanged on the game loop.
+ */
+public class HintService {
+    private static final long MAX_TABLE_BYTES = 64L << 20;
+
+    private final long budgetNanos;
+    private final ExecutorService worker;
+    //Bumped for every new position, so searches for older ones know to stop
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Solver solver;
+    private volatile Hint hint;
+    //The last win found, set with hint
+    private volatile Line line;
+    //Only touched on the game loop
+    private long lastHash;
+
+    /**
+     * Spends up to budgetMillis searching each position, stopping sooner if the player moves on.
+     */
+    public HintService(long budgetMillis) {
+        this.budgetNanos = budgetMillis * 1000000;
+        worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Hints");
+                thread.setDaemon(true);
+                //The game loop and Swing come first
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts working on a hint for where the game is now, dropping whatever was being worked on. Must be run on
+     * the game loop. Does nothing if the position hasn't changed.
+     */
+    public void positionChanged(CardGame game) {
+        final long hash = game.getHash();
+        if (hash == lastHash) {
+            return;
+        }
+        lastHash = hash;
+        final long mine = generation.incrementAndGet();
+        Solver running = solver;
+        if (running != null) {
+            running.cancel();
+        }
+        if (game.hasWon()) {
+            publish(null, line, mine);
+            return;
+        }
+        Line known = line;
+        int at = known == null ? -1 : known.indexOf(hash);
+        if (at != -1) {
+            publish(new Hint(hash, known.moves.get(at), Solver.Status.WON), known, mine);
+            return;
+        }
+        final CompactState position = CompactState.of(game);
+        worker.submit(new Runnable() {
+            @Override
+            public void run() {
+                search(position, hash, mine);
+            }
+        });
+    }
+
+    /**
+     * The best hint so far for the position with this hash, null if there isn't one yet.
+     */
+    public Hint getHint(long hash) {
+        Hint best = hint;
+        return best != null && best.hash == hash ? best : null;
+    }
+
+    public void shutdown() {
+        generation.incrementAndGet();
+        Solver running = solver;
+        if (running != null) {
+            running.cancel();
+        }
+        worker.shutdownNow();
+    }
+
+    private void search(CompactState position, long hash, long mine) {
+        //Skip positions the player has already moved on from
+        if (generation.get() != mine) {
+            return;
+        }
+        long deadline = System.nanoTime() + budgetNanos;
+        CardGame game = new CardGame();
+        position.applyTo(game);
+        GameEngine engine = new GameEngine(game);
+        CardMove guess = guess(engine);
+        publish(new Hint(hash, guess, null), line, mine);
+
+        //Depth first, so a search capped at fewer nodes would only go over the start of this one again
+        Solver attempt = new Solver(Long.MAX_VALUE, MAX_TABLE_BYTES);
+        attempt.setDeadline(deadline);
+        solver = attempt;
+        //positionChanged may have missed this one, so look again now it can be cancelled
+        if (generation.get() != mine) {
+            return;
+        }
+        Solver.Result result = attempt.solve(game);
+        if (result.getStatus() == Solver.Status.WON) {
+            List<CardMove> moves = result.getMoves();
+            publish(new Hint(hash, moves.get(0), Solver.Status.WON), new Line(engine, moves), mine);
+        } else if (result.getStatus() == Solver.Status.LOST) {
+            publish(new Hint(hash, guess, Solver.Status.LOST), line, mine);
+        }
+    }
+
+    //Synchronized so a search that has just been overtaken can't put its hint over the newer one
+    private synchronized void publish(Hint best, Line won, long mine) {
+        if (generation.get() == mine) {
+            hint = best;
+            line = won;
+        }
+    }
+
+    //A card onto a foundation, board first as that uncovers something, otherwise the deck or dealing
+    private static CardMove guess(GameEngine engine) {
+        List<CardMove> moves = engine.legalMoves();
+        CardMove fromHand = null;
+        CardMove other = null;
+        for (CardMove move : moves) {
+            if (move instanceof CardMoveImpl) {
+                CardMoveImpl impl = (CardMoveImpl) move;
+                boolean ontoFoundation = impl.getMoveTypeTo() == CardMove.MOVE_TYPE_TO.TO_ACE_PILES
+                        || impl.getMoveTypeTo() == CardMove.MOVE_TYPE_TO.TO_KING_PILES;
+                if (ontoFoundation && impl.getMoveTypeFrom() == CardMoveImpl.MOVE_TYPE_FROM.FROM_BOARD) {
+                    return move;
+                }
+                if (ontoFoundation && impl.getMoveTypeFrom() == CardMoveImpl.MOVE_TYPE_FROM.FROM_HAND && fromHand == null) {
+                    fromHand = move;
+                }
+            } else if (move instanceof DeckClickMove || move instanceof DealMove) {
+                other = move;
+            }
+        }
+        return fromHand != null ? fromHand : other;
+    }
+
+    //A winning line and the hash of the position before each of its moves
+    private static class Line {
+        private final List<CardMove> moves;
+        private final long[] hashes;
+
+        //Plays the moves through on the engine's game to see the positions, so the game is left at the end
+        private Line(GameEngine engine, List<CardMove> moves) {
+            this.moves = moves;
+            hashes = new long[moves.size()];
+            for (int i = 0; i < moves.size(); i++) {
+                hashes[i] = engine.getGame().getHash();
+                engine.apply(moves.get(i));
+            }
+        }
+
+        //The last place in the line the position with this hash is, -1 if it isn't there. A line can come back to a
+        //position (going right round the deck, say), and going on from the last time skips the loop
+        private int indexOf(long hash) {
+            for (int i = hashes.length - 1; i >= 0; i--) {
+                if (hashes[i] == hash) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A suggested move for one position.
+     */
+    public static class Hint {
+        private final long hash;
+        private final CardMove move;
+        private final Solver.Status status;
+
+        private Hint(long hash, CardMove move, Solver.Status status) {
+            this.hash = hash;
+            this.move = move;
+            this.status = status;
+        }
+
+        /**
+         * Null when there's nothing to do.
+         */
+        public CardMove getMove() {
+            return move;
+        }
+
+        /**
+         * WON if the move is the start of a winning line, LOST if there's no win from here and null if the search
+         * didn't get that far.
+         */
+        public Solver.Status getStatus() {
+            return status;
+        }
+    }
+}
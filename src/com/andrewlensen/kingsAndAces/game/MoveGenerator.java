@@ -0,0 +1,148 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+import com.andrewlensen.kingsAndAces.game.moves.CardMoveImpl;
+import com.andrewlensen.kingsAndAces.game.moves.DealMove;
+import com.andrewlensen.kingsAndAces.game.moves.DeckClickMove;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lists a CardGame's legal moves without trying every card against every foundation. Each foundation only ever
+ * takes one card next (one rank up from an ace pile's top, one down from a king pile's), and this keeps an index of
+ * where each card is that could be wanted: which board piles have it on top and where it is in the hand. Listing the
+ * moves is then a lookup for each of the 8 cards wanted, so it costs about as much as the moves it finds.
+ * <p>
+ * CardGame tells its generator whenever a board pile or the hand changes. The hand is only indexed again when
+ * the moves are next asked for, as the solver changes it all the time and never asks.
+ */
+public class MoveGenerator {
+    private static final int CODES = CardGame.FOUNDATION_SUITS.length * Card.Rank.values().length;
+
+    //For each card code, the board piles with that card on top, one bit each
+    private final int[] pilesTopped = new int[CODES];
+    //The code of the card on top of each board pile, -1 when it's empty
+    private final int[] topCodes = new int[CardGame.BOARD_PILES];
+    //For each card code, where in the hand it is, one bit per place
+    private final long[] handPlaces = new long[CODES];
+    //The hand as it was last indexed, so it can be cleared out
+    private int[] handCodes = new int[0];
+    //Set when the hand has changed since it was indexed
+    private Hand changedHand;
+    private boolean handChanged;
+
+    MoveGenerator() {
+        Arrays.fill(topCodes, -1);
+    }
+
+    void boardPileChanged(int index, List<Card> pile) {
+        int old = topCodes[index];
+        if (old != -1) {
+            pilesTopped[old] &= ~(1 << index);
+        }
+        int top = pile.isEmpty() ? -1 : CompactState.code(pile.get(pile.size() - 1));
+        if (top != -1) {
+            pilesTopped[top] |= 1 << index;
+        }
+        topCodes[index] = top;
+    }
+
+    void handChanged(Hand hand) {
+        changedHand = hand;
+        handChanged = true;
+    }
+
+    //Hands are only a few cards, so this just does it all again
+    private void indexHand(Hand hand) {
+        for (int code : handCodes) {
+            handPlaces[code] = 0;
+        }
+        List<Card> cards = hand == null ? new ArrayList<Card>() : hand.getList();
+        handCodes = new int[cards.size()];
+        int place = 0;
+        for (Card card : cards) {
+            int code = CompactState.code(card);
+            handCodes[place] = code;
+            handPlaces[code] |= 1L << place;
+            place++;
+        }
+    }
+
+    void rebuild(CardGame game) {
+        List<List<Card>> board = game.getBoard();
+        Arrays.fill(pilesTopped, 0);
+        Arrays.fill(topCodes, -1);
+        for (int i = 0; i < board.size(); i++) {
+            boardPileChanged(i, board.get(i));
+        }
+        handChanged(game.getHand());
+    }
+
+    /**
+     * Every move that would succeed from here. Moving a hand card onto itself is left out.
+     */
+    public List<CardMove> legalMoves(CardGame game) {
+        if (handChanged) {
+            indexHand(changedHand);
+            handChanged = false;
+        }
+        List<CardMove> moves = new ArrayList<CardMove>();
+        if (!game.hasDealt()) {
+            moves.add(new DealMove());
+            if (game.canAddToDeckFromBoard()) {
+                for (int i = 0; i < CardGame.BOARD_PILES; i++) {
+                    //The top card has to match the pile's position
+                    if (topCodes[i] != -1 && topCodes[i] % Card.Rank.values().length == i) {
+                        moves.add(GameEngine.move(i, CardMoveImpl.MOVE_TYPE_FROM.FROM_BOARD, 0, CardMove.MOVE_TYPE_TO.TO_DECK));
+                    }
+                }
+            }
+            return moves;
+        }
+
+        if (!game.getDeck().isEmpty()) {
+            moves.add(new DeckClickMove());
+        }
+        for (int i = 0; i < CardGame.FOUNDATION_SUITS.length; i++) {
+            List<Card> acePile = game.getAcePiles().get(i);
+            List<Card> kingPile = game.getKingPiles().get(i);
+            int suit = CardGame.FOUNDATION_SUITS[i].ordinal() * Card.Rank.values().length;
+            int aceTop = acePile.get(acePile.size() - 1).getRank().ordinal();
+            int kingTop = kingPile.get(kingPile.size() - 1).getRank().ordinal();
+            if (aceTop < Card.Rank.KING.ordinal()) {
+                addMovesOf(moves, suit + aceTop + 1, i, CardMove.MOVE_TYPE_TO.TO_ACE_PILES);
+                //The last card of a foundation has to stay
+                if (kingTop == aceTop + 1 && kingPile.size() > 1) {
+                    moves.add(GameEngine.move(i, CardMoveImpl.MOVE_TYPE_FROM.FROM_KING_PILES, i, CardMove.MOVE_TYPE_TO.TO_ACE_PILES));
+                }
+            }
+            if (kingTop > Card.Rank.ACE.ordinal()) {
+                addMovesOf(moves, suit + kingTop - 1, i, CardMove.MOVE_TYPE_TO.TO_KING_PILES);
+                if (aceTop == kingTop - 1 && acePile.size() > 1) {
+                    moves.add(GameEngine.move(i, CardMoveImpl.MOVE_TYPE_FROM.FROM_ACE_PILES, i, CardMove.MOVE_TYPE_TO.TO_KING_PILES));
+                }
+            }
+        }
+        //Any hand card can go anywhere else in the hand
+        for (int i = 0; i < handCodes.length; i++) {
+            for (int j = 0; j < handCodes.length; j++) {
+                if (j != i) {
+                    moves.add(GameEngine.move(i, CardMoveImpl.MOVE_TYPE_FROM.FROM_HAND, j, CardMove.MOVE_TYPE_TO.TO_HAND));
+                }
+            }
+        }
+        return moves;
+    }
+
+    //Moves of every copy of the card on a board pile top or in the hand onto the foundation
+    private void addMovesOf(List<CardMove> moves, int code, int foundation, CardMove.MOVE_TYPE_TO to) {
+        for (int piles = pilesTopped[code]; piles != 0; piles &= piles - 1) {
+            moves.add(GameEngine.move(Integer.numberOfTrailingZeros(piles), CardMoveImpl.MOVE_TYPE_FROM.FROM_BOARD, foundation, to));
+        }
+        for (long places = handPlaces[code]; places != 0; places &= places - 1) {
+            moves.add(GameEngine.move(Long.numberOfTrailingZeros(places), CardMoveImpl.MOVE_TYPE_FROM.FROM_HAND, foundation, to));
+        }
+    }
+}
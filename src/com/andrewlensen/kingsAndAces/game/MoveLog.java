@@ -0,0 +1,257 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+import com.andrewlensen.kingsAndAces.game.moves.CardMoveImpl;
+import com.andrewlensen.kingsAndAces.game.moves.DealMove;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A game's history, each move packed into an int, with the moves taken back kept for redoing. Everything needed
+ * to take a move back is in its int, so no move objects are kept however long the game goes on.
+ * <p>
+ * The low 2 bits are the kind of move. A card move then has where the card came from (the MOVE_TYPE_FROM, the
+ * pile's index and where in the pile, TOP meaning the top) and where it went (the MOVE_TYPE_TO and index). A deal
+ * has how many cards went onto the deck and whether a round was dealt, a deck click where the old hand was.
+ */
+public class MoveLog {
+    public static final int CARD = 0;
+    public static final int DEAL = 1;
+    public static final int DECK_CLICK = 2;
+    //Never in a MoveLog, only in a Recording
+    public static final int UNDO = 3;
+    //As a card move's position, the card came off the top
+    public static final int TOP = 63;
+    //values() copies its array every call
+    private static final CardMoveImpl.MOVE_TYPE_FROM[] FROMS = CardMoveImpl.MOVE_TYPE_FROM.values();
+    private static final CardMove.MOVE_TYPE_TO[] TOS = CardMove.MOVE_TYPE_TO.values();
+
+    private int[] moves = new int[64];
+    private int size;
+    private int[] undone = new int[16];
+    private int undoneSize;
+
+    /**
+     * A card moved from position in pile fromIndex of kind from (TOP for the top card) to pile toIndex of kind to,
+     * or to place toIndex in the hand.
+     */
+    public static int card(CardMoveImpl.MOVE_TYPE_FROM from, int fromIndex, int position, CardMove.MOVE_TYPE_TO to, int toIndex) {
+        return CARD | from.ordinal() << 2 | fromIndex << 4 | position << 8 | to.ordinal() << 14 | toIndex << 16;
+    }
+
+    public static int deal(int toDeck, boolean dealtRound) {
+        return DEAL | toDeck << 2 | (dealtRound ? 1 << 8 : 0);
+    }
+
+    /**
+     * The deck turned over, the old hand having been at prevHandIndex (-1 if it had no place).
+     */
+    public static int deckClick(int prevHandIndex) {
+        return DECK_CLICK | (prevHandIndex + 1) << 2;
+    }
+
+    public static int kind(int move) {
+        return move & 3;
+    }
+
+    public static CardMoveImpl.MOVE_TYPE_FROM from(int move) {
+        return FROMS[move >>> 2 & 3];
+    }
+
+    public static int fromIndex(int move) {
+        return move >>> 4 & 15;
+    }
+
+    public static int position(int move) {
+        return move >>> 8 & 63;
+    }
+
+    public static CardMove.MOVE_TYPE_TO to(int move) {
+        return TOS[move >>> 14 & 3];
+    }
+
+    public static int toIndex(int move) {
+        return move >>> 16 & 63;
+    }
+
+    public static int toDeck(int move) {
+        return move >>> 2 & 63;
+    }
+
+    public static boolean dealtRound(int move) {
+        return (move & 1 << 8) != 0;
+    }
+
+    public static int prevHandIndex(int move) {
+        return (move >>> 2 & 31) - 1;
+    }
+
+    /**
+     * Adds a move just made. Anything taken back can't be redone after this.
+     */
+    public void add(int move) {
+        push(move);
+        undoneSize = 0;
+    }
+
+    private void push(int move) {
+        if (size == moves.length) {
+            moves = Arrays.copyOf(moves, size * 2);
+        }
+        moves[size++] = move;
+    }
+
+    /**
+     * The last move, for taking back. It can then be redone.
+     */
+    int pop() {
+        int move = moves[--size];
+        if (undoneSize == undone.length) {
+            undone = Arrays.copyOf(undone, undoneSize * 2);
+        }
+        undone[undoneSize++] = move;
+        return move;
+    }
+
+    /**
+     * The move redo would make. Only if canRedo.
+     */
+    public int peekUndone() {
+        return undone[undoneSize - 1];
+    }
+
+    /**
+     * The last move taken back, back in the history ready to be made again.
+     */
+    int redo() {
+        int move = undone[--undoneSize];
+        push(move);
+        return move;
+    }
+
+    public boolean canRedo() {
+        return undoneSize > 0;
+    }
+
+    public int get(int index) {
+        return moves[index];
+    }
+
+    public int peek() {
+        return moves[size - 1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+        undoneSize = 0;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(moves, size);
+    }
+
+    /**
+     * The moves that can be redone, the next one to redo last.
+     */
+    int[] undoneToArray() {
+        return Arrays.copyOf(undone, undoneSize);
+    }
+
+    /**
+     * Puts back a history saved with toArray and undoneToArray.
+     */
+    void restore(int[] saved, int[] savedUndone) {
+        moves = Arrays.copyOf(saved, Math.max(saved.length, 64));
+        size = saved.length;
+        undone = Arrays.copyOf(savedUndone, Math.max(savedUndone.length, 16));
+        undoneSize = savedUndone.length;
+    }
+
+    /**
+     * Takes the move back. It must be the last one made on the game.
+     */
+    static void takeBack(CardGame game, int move) {
+        switch (kind(move)) {
+            case DEAL:
+                game.takeBackDealRound(dealtRound(move));
+                game.takeBackFromDeck(toDeck(move));
+                break;
+            case DECK_CLICK:
+                int index = prevHandIndex(move);
+                //The old hand went back onto the board where it was, unless the deck's card made it the hand again
+                Hand prevHand = null;
+                if (index != -1) {
+                    Hand hand = game.getHand();
+                    prevHand = new Hand(hand.getIndex() == index ? hand.getList() : game.getBoard().get(index), index);
+                }
+                game.takeBackDeckTurn(prevHand);
+                break;
+            default:
+                List<Card> from = pile(game, from(move), fromIndex(move));
+                if (to(move) == CardMove.MOVE_TYPE_TO.TO_HAND) {
+                    game.moveCard(from, toIndex(move), from, position(move));
+                } else {
+                    List<Card> to = pile(game, to(move), toIndex(move));
+                    game.moveCard(to, to.size() - 1, from, position(move) == TOP ? from.size() : position(move));
+                }
+        }
+    }
+
+    /**
+     * Makes the move again, straight after it was taken back.
+     */
+    static void replay(CardGame game, int move) {
+        switch (kind(move)) {
+            case DEAL:
+                new DealMove().makeMove(game);
+                break;
+            case DECK_CLICK:
+                game.turnOverDeck();
+                break;
+            default:
+                List<Card> from = pile(game, from(move), fromIndex(move));
+                int position = position(move) == TOP ? from.size() - 1 : position(move);
+                if (to(move) == CardMove.MOVE_TYPE_TO.TO_HAND) {
+                    game.moveCard(from, position, from, toIndex(move));
+                } else {
+                    List<Card> to = pile(game, to(move), toIndex(move));
+                    game.moveCard(from, position, to, to.size());
+                }
+        }
+    }
+
+    private static List<Card> pile(CardGame game, CardMoveImpl.MOVE_TYPE_FROM type, int index) {
+        switch (type) {
+            case FROM_ACE_PILES:
+                return game.getAcePiles().get(index);
+            case FROM_KING_PILES:
+                return game.getKingPiles().get(index);
+            case FROM_BOARD:
+                return game.getBoard().get(index);
+            default:
+                return game.getHand().getList();
+        }
+    }
+
+    private static List<Card> pile(CardGame game, CardMove.MOVE_TYPE_TO type, int index) {
+        switch (type) {
+            case TO_ACE_PILES:
+                return game.getAcePiles().get(index);
+            case TO_KING_PILES:
+                return game.getKingPiles().get(index);
+            case TO_DECK:
+                return game.getDeck();
+            default:
+                return game.getHand().getList();
+        }
+    }
+}
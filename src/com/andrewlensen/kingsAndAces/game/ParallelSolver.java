@@ -0,0 +1,259 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+import com.andrewlensen.kingsAndAces.game.moves.DeckClickMove;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Solver's search spread over the workers of a ForkJoinPool, all sharing one table of the positions seen. The table
+ * is split into STRIPES PositionTables by hash, each locked on its own, so workers seldom wait for each other.
+ * Whenever the pool is short of queued work, the moves not yet tried at a position (dealing, deck clicks and
+ * foundation moves) are forked off as tasks for idle workers to steal, and the rest is searched where it is.
+ * The answer is the same as Solver's but which winning line is found can change from run to run.
+ * <p>
+ * solveAll solves lots of deals at once instead, one deal per task, each with a Solver of its own.
+ */
+public class ParallelSolver {
+    //Enough queued tasks that a worker finishing can always steal one, past that searching locally is cheaper
+    private static final int SURPLUS_TASKS = 3;
+    //Nodes a task counts up before adding them to the shared count, so workers aren't all fighting over it
+    private static final int NODE_BATCH = 256;
+    //Tables the shared one is split into, picked by the top bits of the hash
+    private static final int STRIPES = 64;
+    private static final int STRIPE_SHIFT = 64 - Integer.numberOfTrailingZeros(STRIPES);
+
+    private final ForkJoinPool pool;
+    private final long maxNodes;
+    private final long maxTableBytes;
+
+    public ParallelSolver(ForkJoinPool pool, long maxNodes, long maxTableBytes) {
+        this.pool = pool;
+        this.maxNodes = maxNodes;
+        this.maxTableBytes = maxTableBytes;
+    }
+
+    /**
+     * Uses a pool with a worker for each core.
+     */
+    public ParallelSolver(long maxNodes, long maxTableBytes) {
+        this(new ForkJoinPool(), maxNodes, maxTableBytes);
+    }
+
+    /**
+     * Searches from the game's current position using every worker. The game itself isn't touched, each task
+     * works on its own copy and the winning line is worked out on another.
+     */
+    public Solver.Result solve(CardGame game) {
+        Search search = new Search(CompactState.of(game), maxNodes, maxTableBytes / PositionTable.BYTES_PER_STATE);
+        pool.invoke(new Branch(search, search.start, 0, Collections.<CardMove>emptyList()));
+        List<CardMove> path = search.win.get();
+        Solver.Status status = path != null ? Solver.Status.WON : search.gaveUp ? Solver.Status.GAVE_UP : Solver.Status.LOST;
+        List<CardMove> moves = Collections.emptyList();
+        if (path != null) {
+            CardGame copy = new CardGame();
+            search.start.applyTo(copy);
+            moves = Solver.playable(new GameEngine(copy), search.start, path);
+        }
+        return new Solver.Result(status, moves, search.nodes.get(), (int) search.states.get());
+    }
+
+    /**
+     * Solves each deal from the start, as many at a time as the pool has workers. The table memory is split
+     * between the workers, the node cap is per deal. Results are in the same order as the deal numbers.
+     */
+    public Solver.Result[] solveAll(final long[] dealNumbers) {
+        final Solver.Result[] results = new Solver.Result[dealNumbers.length];
+        final long tableBytes = maxTableBytes / pool.getParallelism();
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(dealNumbers.length);
+        for (int i = 0; i < dealNumbers.length; i++) {
+            final int deal = i;
+            tasks.add(pool.submit(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    CardGame game = GameEngine.newGame(dealNumbers[deal]).getGame();
+                    results[deal] = new Solver(maxNodes, tableBytes).solve(game);
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        return results;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    //Everything the tasks of one solve share
+    private static class Search {
+        private final CompactState start;
+        private final long maxNodes;
+        private final long maxStates;
+        private final PositionTable[] seen = new PositionTable[STRIPES];
+        private final AtomicLong nodes = new AtomicLong();
+        //Added to in batches like nodes, so only exact once the tasks are done
+        private final AtomicLong states = new AtomicLong();
+        //The first winning path found, from the start
+        private final AtomicReference<List<CardMove>> win = new AtomicReference<List<CardMove>>();
+        //Set once there's no point any task carrying on
+        private volatile boolean stop;
+        private volatile boolean gaveUp;
+
+        private Search(CompactState start, long maxNodes, long maxStates) {
+            this.start = start;
+            this.maxNodes = maxNodes;
+            this.maxStates = maxStates;
+            for (int i = 0; i < STRIPES; i++) {
+                seen[i] = new PositionTable();
+            }
+        }
+
+        //False if the position had been seen already
+        private boolean add(long key) {
+            PositionTable stripe = seen[(int) (key >>> STRIPE_SHIFT)];
+            synchronized (stripe) {
+                return stripe.add(key);
+            }
+        }
+
+        private void won(List<CardMove> path) {
+            if (win.compareAndSet(null, new ArrayList<CardMove>(path))) {
+                stop = true;
+            }
+        }
+
+        private void count(long counted, long added) {
+            long stored = states.addAndGet(added);
+            if (nodes.addAndGet(counted) >= maxNodes || stored >= maxStates) {
+                gaveUp = true;
+                stop = true;
+            }
+        }
+    }
+
+    /**
+     * Searches everything below one position. Its path is how that position was reached from the start.
+     */
+    //Tasks are never serialized, and a Search couldn't be
+    @SuppressWarnings("serial")
+    private static class Branch extends RecursiveAction {
+        private final Search search;
+        private final CompactState position;
+        private final int free;
+        private final List<CardMove> path;
+        private final List<Branch> forked = new ArrayList<Branch>();
+        private int nodes = 0;
+        private int states = 0;
+
+        private Branch(Search search, CompactState position, int free, List<CardMove> path) {
+            this.search = search;
+            this.position = position;
+            this.free = free;
+            this.path = path;
+        }
+
+        @Override
+        protected void compute() {
+            CardGame game = new CardGame();
+            position.applyTo(game);
+            GameEngine engine = new GameEngine(game);
+            search(engine, new ArrayList<CardMove>(path));
+            search.count(nodes, states);
+            for (Branch branch : forked) {
+                branch.join();
+            }
+        }
+
+        //Solver.search, but forking off moves whenever other workers need something to do
+        private void search(GameEngine engine, List<CardMove> path) {
+            CardGame game = engine.getGame();
+            if (game.hasWon()) {
+                search.won(path);
+                return;
+            }
+            node();
+            if (!added(Solver.key(game, free)) || DeadEnds.isDead(game, free)) {
+                return;
+            }
+            List<Solver.Frame> stack = new ArrayList<Solver.Frame>();
+            stack.add(new Solver.Frame(Solver.orderedMoves(game, free), free));
+            while (!stack.isEmpty() && !search.stop) {
+                Solver.Frame frame = stack.get(stack.size() - 1);
+                if (frame.next == frame.moves.size()) {
+                    stack.remove(stack.size() - 1);
+                    if (frame.made != null) {
+                        Solver.takeBack(engine, path, frame.made);
+                    }
+                    continue;
+                }
+                CardMove[] move = frame.moves.get(frame.next++);
+                if (frame.next < frame.moves.size() && getSurplusQueuedTaskCount() < SURPLUS_TASKS) {
+                    //Try this move here and give the rest to whoever is free
+                    while (frame.next < frame.moves.size()) {
+                        fork(engine, path, frame.moves.get(frame.next++), frame.free);
+                    }
+                }
+                int free = frame.free;
+                if (move[0] instanceof DeckClickMove) {
+                    free = Solver.freeAfterDeckClick(game, free);
+                }
+                make(engine, path, move);
+                if (game.hasWon()) {
+                    search.won(path);
+                    return;
+                }
+                node();
+                if (added(Solver.key(game, free)) && !DeadEnds.isDead(game, free)) {
+                    Solver.Frame next = new Solver.Frame(Solver.orderedMoves(game, free), free);
+                    next.made = move;
+                    stack.add(next);
+                } else {
+                    Solver.takeBack(engine, path, move);
+                }
+            }
+        }
+
+        private void fork(GameEngine engine, List<CardMove> path, CardMove[] move, int free) {
+            if (move[0] instanceof DeckClickMove) {
+                free = Solver.freeAfterDeckClick(engine.getGame(), free);
+            }
+            make(engine, path, move);
+            Branch branch = new Branch(search, CompactState.of(engine.getGame()), free, new ArrayList<CardMove>(path));
+            Solver.takeBack(engine, path, move);
+            branch.fork();
+            forked.add(branch);
+        }
+
+        private static void make(GameEngine engine, List<CardMove> path, CardMove[] move) {
+            for (CardMove part : move) {
+                engine.apply(part);
+                path.add(part);
+            }
+        }
+
+        private void node() {
+            if (++nodes == NODE_BATCH) {
+                search.count(nodes, states);
+                nodes = 0;
+                states = 0;
+            }
+        }
+
+        private boolean added(long key) {
+            if (search.add(key)) {
+                states++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * A pile of cards in an array, bottom card first, that can hand out frozen copies in constant time.
+ * A snapshot shares the array and only reads the cards that were there when it was taken. The pile goes on
+ * adding above those in place, and copies the array before changing any of them, so a snapshot never sees a
+ * change however the pile is used afterwards. The solver's piles are never snapshotted, so they never copy.
+ */
+public class Pile extends AbstractList<Card> {
+    private static final int FIRST_CAPACITY = 8;
+
+    private final boolean frozen;
+    private Card[] cards;
+    private int size;
+    //The most cards any snapshot still sharing the array can see, so changing one below this copies it first
+    private int shared;
+
+    public Pile() {
+        this(new Card[FIRST_CAPACITY], 0, false);
+    }
+
+    public Pile(Iterable<Card> cards) {
+        this();
+        for (Card card : cards) {
+            add(card);
+        }
+    }
+
+    private Pile(Card[] cards, int size, boolean frozen) {
+        this.cards = cards;
+        this.size = size;
+        this.frozen = frozen;
+    }
+
+    /**
+     * An unmodifiable copy of the pile as it is now.
+     */
+    public Pile snapshot() {
+        if (frozen) {
+            return this;
+        }
+        shared = Math.max(shared, size);
+        return new Pile(cards, size, true);
+    }
+
+    @Override
+    public Card get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return cards[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(Card card) {
+        add(size, card);
+        return true;
+    }
+
+    @Override
+    public void add(int index, Card card) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        checkNotFrozen();
+        if (size == cards.length) {
+            cards = Arrays.copyOf(cards, size * 2);
+            shared = 0;
+        } else if (index < shared) {
+            unshare();
+        }
+        System.arraycopy(cards, index, cards, index + 1, size - index);
+        cards[index] = card;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Card remove(int index) {
+        Card removed = get(index);
+        checkNotFrozen();
+        if (index < size - 1) {
+            if (index < shared) {
+                unshare();
+            }
+            System.arraycopy(cards, index + 1, cards, index, size - 1 - index);
+        }
+        size--;
+        if (size >= shared) {
+            //Let it go, unless a snapshot can still see it
+            cards[size] = null;
+        }
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public Card set(int index, Card card) {
+        Card old = get(index);
+        checkNotFrozen();
+        if (index < shared) {
+            unshare();
+        }
+        cards[index] = card;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        checkNotFrozen();
+        if (shared > 0) {
+            cards = new Card[cards.length];
+            shared = 0;
+        } else {
+            Arrays.fill(cards, 0, size, null);
+        }
+        size = 0;
+        modCount++;
+    }
+
+    private void unshare() {
+        cards = cards.clone();
+        shared = 0;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Pile snapshots can't be changed");
+        }
+    }
+}
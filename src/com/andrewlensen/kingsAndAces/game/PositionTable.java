@@ -0,0 +1,59 @@
+package com.andrewlensen.kingsAndAces.game;
+
+/**
+ * A set of 64 bit position hashes kept in one long array, so adding one is a probe or two into memory that is
+ * already there rather than a new object. Open addressing: a hash goes in the first empty slot from where it
+ * lands, and the array doubles once it is half full. Not thread safe.
+ */
+final class PositionTable {
+    //Most it can take up for each hash in it, the array being between a quarter and half full
+    static final int BYTES_PER_STATE = 32;
+    private static final int FIRST_CAPACITY = 1024;
+    //0 marks an empty slot, so a hash of 0 is kept as this instead
+    private static final long ZERO = 0x9E3779B97F4A7C15L;
+
+    private long[] slots = new long[FIRST_CAPACITY];
+    private int size;
+
+    /**
+     * Adds the hash, returning false if it was already there.
+     */
+    boolean add(long hash) {
+        if (hash == 0) {
+            hash = ZERO;
+        }
+        int mask = slots.length - 1;
+        //Zobrist hashes are already random in every bit
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            if (slots[i] == hash) {
+                return false;
+            }
+            if (slots[i] == 0) {
+                slots[i] = hash;
+                if (++size * 2 > slots.length) {
+                    grow();
+                }
+                return true;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        int mask = slots.length - 1;
+        for (long hash : old) {
+            if (hash != 0) {
+                int i = (int) hash & mask;
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = hash;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Counts positive values in buckets that grow by a fixed ratio, so any quantile can be read back to within
+ * ACCURACY of the true value (relative, not absolute) however many values have been added. Adding and asking are
+ * both constant time, the buckets being fixed: from 1 to about 10^9, which is over a week in milliseconds.
+ * Not thread safe.
+ */
+public class QuantileSketch {
+    //Any quantile is within 2% of the value it stands for
+    public static final double ACCURACY = 0.02;
+    private static final double GAMMA = (1 + ACCURACY) / (1 - ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final int BUCKETS = (int) Math.ceil(Math.log(1e9) / LOG_GAMMA) + 1;
+
+    private final int[] counts = new int[BUCKETS];
+    private long count;
+
+    public void add(int value) {
+        counts[bucket(value)]++;
+        count++;
+    }
+
+    private static int bucket(int value) {
+        if (value <= 1) {
+            return 0;
+        }
+        return Math.min((int) Math.ceil(Math.log(value) / LOG_GAMMA), BUCKETS - 1);
+    }
+
+    /**
+     * The value q of the way up (0.5 for the median), or -1 if nothing has been added.
+     */
+    public int quantile(double q) {
+        if (count == 0) {
+            return -1;
+        }
+        long rank = (long) (q * (count - 1));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                //The middle of the bucket, so the answer is out by at most ACCURACY either way
+                return i == 0 ? 1 : (int) Math.round(2 * Math.pow(GAMMA, i) / (GAMMA + 1));
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        count = 0;
+    }
+
+    /**
+     * Writes the buckets from the first to the last in use, so an empty or narrow sketch is small.
+     */
+    void write(DataOutputStream out) throws IOException {
+        int first = 0;
+        while (first < BUCKETS && counts[first] == 0) {
+            first++;
+        }
+        int last = BUCKETS - 1;
+        while (last >= first && counts[last] == 0) {
+            last--;
+        }
+        out.writeInt(first);
+        out.writeInt(last - first + 1);
+        for (int i = first; i <= last; i++) {
+            out.writeInt(counts[i]);
+        }
+    }
+
+    /**
+     * Reads what write wrote into this sketch, replacing whatever was in it.
+     */
+    void read(ByteBuffer in) {
+        clear();
+        int first = in.getInt();
+        int length = in.getInt();
+        if (first < 0 || length < 0 || first + length > BUCKETS) {
+            throw new IllegalArgumentException("Not a sketch with " + BUCKETS + " buckets");
+        }
+        for (int i = first; i < first + length; i++) {
+            counts[i] = in.getInt();
+            count += counts[i];
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import java.util.Arrays;
+
+/**
+ * Everything the player did in one game, for saving as a replay: each move packed as in MoveLog (MoveLog.UNDO for
+ * an undo, a redo being the move again) with the milliseconds since the game started. Added to on the game loop,
+ * copied out from anywhere.
+ */
+public class Recording {
+    private final long dealNumber;
+    private final long startTime;
+    //Move then time, for each move
+    private int[] entries = new int[128];
+    private int size;
+    private int undos;
+
+    public Recording(long dealNumber, long startTime) {
+        this.dealNumber = dealNumber;
+        this.startTime = startTime;
+    }
+
+    /**
+     * Carries on a recording from getEntries, for a saved game.
+     */
+    Recording(long dealNumber, long startTime, int[] entries) {
+        this(dealNumber, startTime);
+        this.entries = Arrays.copyOf(entries, Math.max(entries.length, 128));
+        size = entries.length;
+        for (int i = 0; i < size; i += 2) {
+            if (entries[i] == MoveLog.UNDO) {
+                undos++;
+            }
+        }
+    }
+
+    synchronized void add(int move, int millis) {
+        if (size + 2 > entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        entries[size++] = move;
+        entries[size++] = millis;
+        if (move == MoveLog.UNDO) {
+            undos++;
+        }
+    }
+
+    /**
+     * Moves and times one after the other, as they are now.
+     */
+    public synchronized int[] getEntries() {
+        return Arrays.copyOf(entries, size);
+    }
+
+    public synchronized int getMoveCount() {
+        return size / 2;
+    }
+
+    public synchronized int getUndoCount() {
+        return undos;
+    }
+
+    public long getDealNumber() {
+        return dealNumber;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+}
@@ -0,0 +1,227 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An unfinished game put away to be carried on later, a few hundred bytes for a whole game.
+ * <p>
+ * Layout, big endian: MAGIC and VERSION, the deal number, milliseconds played, the DealState, the position as
+ * CompactState.encode writes it, the whole pack as card codes (-1 for no pack) and how much of it has been dealt,
+ * then the history, the moves that can be redone and the recording entries, each a count followed by the ints.
+ * It ends with a CRC32 of everything before it, so a damaged save is turned down rather than half loaded.
+ * <p>
+ * Saves go to a temporary file that is synced to disk and then moved over the old save in one step, so a crash
+ * leaves the old save or the new one but never part of one.
+ */
+public class SavedGame {
+    //Where the game keeps the one game being played
+    public static final File FILE = new File(System.getProperty("user.home"), ".kingsAndAces/saved.kas");
+
+    //"KAAS"
+    private static final int MAGIC = 0x4B414153;
+    private static final int VERSION = 1;
+
+    private final long dealNumber;
+    private final long playedMillis;
+    private final CardGame.DealState dealState;
+    private final byte[] position;
+    //Null for no pack
+    private final byte[] pack;
+    private final int packNext;
+    private final int[] history;
+    private final int[] undone;
+    private final int[] recorded;
+
+    private SavedGame(long dealNumber, long playedMillis, CardGame.DealState dealState, byte[] position, byte[] pack,
+                      int packNext, int[] history, int[] undone, int[] recorded) {
+        this.dealNumber = dealNumber;
+        this.playedMillis = playedMillis;
+        this.dealState = dealState;
+        this.position = position;
+        this.pack = pack;
+        this.packNext = packNext;
+        this.history = history;
+        this.undone = undone;
+        this.recorded = recorded;
+    }
+
+    /**
+     * Everything needed to carry on the game from where it is now. Must be run on the game loop.
+     */
+    public static SavedGame of(CardGame game) {
+        Recording recording = game.getRecording();
+        return of(game, System.currentTimeMillis() - game.getStartTime(),
+                recording == null ? new int[0] : recording.getEntries());
+    }
+
+    /**
+     * As of(game), for a game with no clock or recording of its own, e.g. one rebuilt by GameJournal.
+     */
+    static SavedGame of(CardGame game, long playedMillis, int[] recorded) {
+        byte[] position = new byte[CompactState.LENGTH];
+        CompactState.encode(game, position);
+        List<Card> wholePack = game.getWholePack();
+        byte[] pack = null;
+        if (wholePack != null) {
+            pack = new byte[wholePack.size()];
+            for (int i = 0; i < pack.length; i++) {
+                pack[i] = (byte) CompactState.code(wholePack.get(i));
+            }
+        }
+        return new SavedGame(game.getDealNumber(), playedMillis, game.getDealState(), position, pack, game.getPackNext(),
+                game.getHistory().toArray(), game.getHistory().undoneToArray(), recorded);
+    }
+
+    public long getDealNumber() {
+        return dealNumber;
+    }
+
+    long getPlayedMillis() {
+        return playedMillis;
+    }
+
+    int[] getRecorded() {
+        return recorded;
+    }
+
+    /**
+     * Puts the game back as it was saved, ready to play on. The game must be new. Run on the game loop.
+     */
+    public void applyTo(CardGame game) {
+        CompactState.wrap(position.clone()).applyTo(game);
+        game.getHistory().restore(history, undone);
+        ArrayList<Card> wholePack = null;
+        if (pack != null) {
+            wholePack = new ArrayList<Card>(pack.length);
+            for (byte code : pack) {
+                wholePack.add(CompactState.card(code));
+            }
+        }
+        game.resume(dealNumber, playedMillis, wholePack, packNext, dealState, recorded);
+    }
+
+    /**
+     * Replaces whatever was saved in file with this game.
+     */
+    public void write(File file) throws IOException {
+        writeAtomically(file, toBytes());
+    }
+
+    byte[] toBytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(dealNumber);
+        out.writeLong(playedMillis);
+        out.writeByte(dealState.ordinal());
+        out.write(position);
+        out.writeInt(pack == null ? -1 : pack.length);
+        if (pack != null) {
+            out.write(pack);
+        }
+        out.writeInt(packNext);
+        writeInts(out, history);
+        writeInts(out, undone);
+        writeInts(out, recorded);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replaces file with bytes in one step, see the class comment.
+     */
+    static void writeAtomically(File file, byte[] bytes) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't make " + dir);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            stream.write(bytes);
+            //On the disk before it takes the old save's place
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Reads a game written by write. Throws if the file isn't a save this version can read or has been damaged.
+     */
+    public static SavedGame read(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        return fromBytes(bytes, 0, bytes.length, file.toString());
+    }
+
+    /**
+     * Reads the game written by toBytes from length bytes at offset, source naming where they came from.
+     */
+    static SavedGame fromBytes(byte[] bytes, int offset, int length, String source) throws IOException {
+        if (length < 12) {
+            throw new IOException(source + " is too short to be a saved game");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(bytes).getInt(offset + length - 4)) {
+            throw new IOException(source + " is damaged");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length - 4));
+        if (in.readInt() != MAGIC) {
+            throw new IOException(source + " isn't a saved game");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Can't read version " + version + " saved games");
+        }
+        long dealNumber = in.readLong();
+        long playedMillis = in.readLong();
+        CardGame.DealState dealState = CardGame.DealState.values()[in.readUnsignedByte()];
+        byte[] position = new byte[CompactState.LENGTH];
+        in.readFully(position);
+        int packSize = in.readInt();
+        byte[] pack = null;
+        if (packSize >= 0) {
+            pack = new byte[packSize];
+            in.readFully(pack);
+        }
+        int packNext = in.readInt();
+        if (pack != null && pack.length - packNext != CompactState.wrap(position).getPackSize()) {
+            throw new IOException(source + " doesn't add up");
+        }
+        return new SavedGame(dealNumber, playedMillis, dealState, position, pack, packNext,
+                readInts(in), readInts(in), readInts(in));
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+}
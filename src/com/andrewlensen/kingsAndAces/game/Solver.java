@@ -0,0 +1,675 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+import com.andrewlensen.kingsAndAces.game.moves.CardMoveImpl;
+import com.andrewlensen.kingsAndAces.game.moves.DealMove;
+import com.andrewlensen.kingsAndAces.game.moves.DeckClickMove;
+import com.andrewlensen.kingsAndAces.game.moves.MoveResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Works out whether a position can be won, by depth first search over the same moves a player can make.
+ * Every position reached is kept (as its 64 bit Zobrist.canonical hash) so none is searched twice. Two positions
+ * sharing a hash would make the second look seen already, but with the few million a search keeps that is less than
+ * a one in a million chance.
+ * <p>
+ * A few things keep the search down without losing any wins:
+ * <ul>
+ * <li>When the hand goes back to the board the player could have put it in any order, so the search treats every
+ * card of a returned hand as available and puts the hand in the order needed afterwards. The hand and returned hands
+ * make a reserve that never gets covered up, and their order isn't part of a position.</li>
+ * <li>Putting a reserve card on a foundation can always wait until it is needed. So reserve cards only go on as part
+ * of getting a card from the top of an ordinary pile on, and once every card left is in the reserve or the deck the
+ * game can't be lost and is just played out.</li>
+ * <li>Once a suit's king and ace piles meet (between them they hold one of each rank) cards can be slid from one to
+ * the other freely, so where they meet doesn't matter.</li>
+ * <li>A card put on the deck during the deal comes back to its own pile when turned over, making the whole pile
+ * available, so every card that can go on the deck does. After the deal the deck is turned over straight away, as
+ * that only ever gives more to get at. Neither leaves anything to choose, so the deal is a single line.</li>
+ * <li>A board card that can go straight on when the other copy of it is already on, or is in the reserve, goes on
+ * with nothing else tried, since whichever copy goes where comes to the same thing.</li>
+ * </ul>
+ * The search gives up once it has looked at maxNodes positions or the table would go over maxTableBytes, or when
+ * it is cancelled or past its deadline.
+ */
+public class Solver {
+    private static final int RANKS = Card.Rank.values().length;
+    //How often to look at the clock, in nodes
+    private static final int CLOCK_CHECK = 1024;
+
+    //Ways a suit's ace and king piles change on the way to a card going on
+    private static final int PUT_ON_ACE = 0;
+    private static final int PUT_ON_KING = 1;
+    private static final int SLIDE_TO_KING = 2;
+    private static final int SLIDE_TO_ACE = 3;
+
+    private final long maxNodes;
+    private final long maxStates;
+    //From System.nanoTime()
+    private long deadline = Long.MAX_VALUE;
+    private volatile boolean cancelled;
+
+    private PositionTable seen;
+    private long nodes;
+    private boolean gaveUp;
+
+    public Solver(long maxNodes, long maxTableBytes) {
+        this.maxNodes = maxNodes;
+        this.maxStates = maxTableBytes / PositionTable.BYTES_PER_STATE;
+    }
+
+    /**
+     * Makes the search give up once System.nanoTime() has passed deadline.
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Makes a search running on another thread give up as soon as it can. A cancelled Solver stays cancelled.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Searches from the game's current position. The search is made on a copy, so the game, its history, redo stack,
+     * recording and journal never see any of the moves tried.
+     */
+    public Result solve(CardGame game) {
+        CompactState start = CompactState.of(game);
+        CardGame copy = new CardGame();
+        start.applyTo(copy);
+        GameEngine engine = new GameEngine(copy);
+        seen = new PositionTable();
+        nodes = 0;
+        gaveUp = false;
+        List<CardMove> path = new ArrayList<CardMove>();
+        boolean won = search(engine, path);
+        //Back to the start for playable, the copy's history starting empty
+        while (!copy.getHistory().isEmpty()) {
+            engine.undo();
+        }
+        Status status = won ? Status.WON : gaveUp ? Status.GAVE_UP : Status.LOST;
+        List<CardMove> moves = won ? playable(engine, start, path) : Collections.<CardMove>emptyList();
+        Result result = new Result(status, moves, nodes, seen.size());
+        //The table can be big, don't hold onto it between solves
+        seen = null;
+        return result;
+    }
+
+    //Iterative rather than recursive as winning lines can be hundreds of moves long
+    private boolean search(GameEngine engine, List<CardMove> path) {
+        CardGame game = engine.getGame();
+        if (game.hasWon()) {
+            return true;
+        }
+        nodes++;
+        seen.add(key(game, 0));
+        if (DeadEnds.isDead(game, 0)) {
+            return false;
+        }
+        List<Frame> stack = new ArrayList<Frame>();
+        stack.add(new Frame(orderedMoves(game, 0), 0));
+        while (!stack.isEmpty()) {
+            Frame frame = stack.get(stack.size() - 1);
+            if (frame.next == frame.moves.size()) {
+                //Tried everything from here, back up a move
+                stack.remove(stack.size() - 1);
+                if (frame.made != null) {
+                    takeBack(engine, path, frame.made);
+                }
+                continue;
+            }
+            CardMove[] move = frame.moves.get(frame.next++);
+            int free = frame.free;
+            if (move[0] instanceof DeckClickMove) {
+                free = freeAfterDeckClick(game, free);
+            }
+            for (CardMove part : move) {
+                //Everything generated is legal, so this can't fail
+                engine.apply(part);
+                path.add(part);
+            }
+            if (game.hasWon()) {
+                return true;
+            }
+            if (nodes >= maxNodes || seen.size() >= maxStates || cancelled
+                    || nodes % CLOCK_CHECK == 0 && System.nanoTime() > deadline) {
+                gaveUp = true;
+                return false;
+            }
+            nodes++;
+            //Lost positions go in the table too, so they're only checked once
+            if (seen.add(key(game, free)) && !DeadEnds.isDead(game, free)) {
+                Frame next = new Frame(orderedMoves(game, free), free);
+                next.made = move;
+                stack.add(next);
+            } else {
+                takeBack(engine, path, move);
+            }
+        }
+        return false;
+    }
+
+    static void takeBack(GameEngine engine, List<CardMove> path, CardMove[] move) {
+        for (int i = 0; i < move.length; i++) {
+            path.remove(path.size() - 1);
+            engine.undo();
+        }
+    }
+
+    //The hand goes back to the board and the pile matching the deck's top card becomes the hand
+    static int freeAfterDeckClick(CardGame game, int free) {
+        Hand hand = game.getHand();
+        if (hand != null && hand.getIndex() != -1) {
+            free |= 1 << hand.getIndex();
+        }
+        return free & ~(1 << game.getDeck().peek().getRank().ordinal());
+    }
+
+    //What the table keeps for a position, the same for positions that only differ in ways the search ignores
+    static long key(CardGame game, int free) {
+        return Zobrist.canonical(game, free);
+    }
+
+    /**
+     * Each move is one or more CardMoves made together. Just the one while dealing, turning over the deck or when
+     * there's a safe card to put on, otherwise every way of getting a board card on.
+     */
+    static List<CardMove[]> orderedMoves(CardGame game, int free) {
+        List<CardMove[]> moves = new ArrayList<CardMove[]>(16);
+        if (!game.hasDealt()) {
+            //A card put on the deck comes back to its own pile when it's turned over, and that pile is then the
+            //hand, so putting it on only ever gives more to get at
+            if (game.canAddToDeckFromBoard()) {
+                for (int i = 0; i < CardGame.BOARD_PILES; i++) {
+                    if (game.canAddToDeck(i)) {
+                        moves.add(new CardMove[]{GameEngine.move(i, CardMoveImpl.MOVE_TYPE_FROM.FROM_BOARD, 0, CardMove.MOVE_TYPE_TO.TO_DECK)});
+                        return moves;
+                    }
+                }
+            }
+            moves.add(new CardMove[]{new DealMove()});
+            return moves;
+        }
+
+        //Turning over the deck only ever gives more to get at, the foundations staying as they are, so doing it
+        //straight away loses nothing
+        if (!game.getDeck().isEmpty()) {
+            moves.add(new CardMove[]{new DeckClickMove()});
+            return moves;
+        }
+        int[][] reserve = reserve(game, free);
+        List<List<Card>> board = game.getBoard();
+        CardMove[] safe = safeMove(game, reserve, free);
+        if (safe != null) {
+            moves.add(safe);
+            return moves;
+        }
+        boolean allInReserve = true;
+        for (int i = 0; i < board.size(); i++) {
+            List<Card> pile = board.get(i);
+            if ((free & (1 << i)) == 0 && !pile.isEmpty()) {
+                allInReserve = false;
+                Card top = pile.get(pile.size() - 1);
+                addWaysOn(game, moves, reserve, free, foundationIndex(top.getSuit()), top.getRank().ordinal(), i);
+            }
+        }
+        if (allInReserve) {
+            //Can't lose from here, so put on anything that goes
+            for (int suit = 0; suit < reserve.length; suit++) {
+                for (int rank = 0; rank < RANKS; rank++) {
+                    if (reserve[suit][rank] > 0) {
+                        addWaysOn(game, moves, null, free, suit, rank, -1);
+                    }
+                }
+            }
+        }
+        return moves;
+    }
+
+    //A board card that can go straight on and whose other copy is already on or in the reserve, null if none.
+    //Then it doesn't matter which copy goes where, and nothing else can do better than putting this one on first.
+    private static CardMove[] safeMove(CardGame game, int[][] reserve, int free) {
+        List<List<Card>> board = game.getBoard();
+        for (int i = 0; i < board.size(); i++) {
+            List<Card> pile = board.get(i);
+            if ((free & (1 << i)) != 0 || pile.isEmpty()) {
+                continue;
+            }
+            Card top = pile.get(pile.size() - 1);
+            int suit = foundationIndex(top.getSuit());
+            int rank = top.getRank().ordinal();
+            int aceTop = game.getAcePiles().get(suit).size() - 1;
+            int kingTop = RANKS - game.getKingPiles().get(suit).size();
+            boolean onAce = rank == aceTop + 1;
+            if (!onAce && rank != kingTop - 1) {
+                continue;
+            }
+            //The other pile already has the rank, so this copy has nowhere else to go
+            boolean otherOn = onAce ? rank >= kingTop : rank <= aceTop;
+            if (otherOn || reserve[suit][rank] > 0) {
+                int code = CardGame.FOUNDATION_SUITS[suit].ordinal() * RANKS + rank;
+                return new CardMove[]{onFoundation(code, free, suit, i, onAce)};
+            }
+        }
+        return null;
+    }
+
+    //How many reserve cards there are of each foundation and rank. Copies are the same card, so counts are enough.
+    private static int[][] reserve(CardGame game, int free) {
+        int[][] reserve = new int[CardGame.FOUNDATION_SUITS.length][RANKS];
+        if (game.getHand() != null) {
+            addToReserve(reserve, game.getHand().getList());
+        }
+        List<List<Card>> board = game.getBoard();
+        for (int i = 0; i < board.size(); i++) {
+            if ((free & (1 << i)) != 0) {
+                addToReserve(reserve, board.get(i));
+            }
+        }
+        return reserve;
+    }
+
+    private static void addToReserve(int[][] reserve, List<Card> cards) {
+        for (int i = 0; i < cards.size(); i++) {
+            Card card = cards.get(i);
+            reserve[foundationIndex(card.getSuit())][card.getRank().ordinal()]++;
+        }
+    }
+
+    /**
+     * Adds a move for each different way of getting the card of the foundation's suit and rank on: straight on, or
+     * after putting reserve cards of its suit on first and sliding between the piles where they meet. The card comes
+     * from the top of the board pile, or from the reserve if pile is -1. With no reserve given only slides are tried.
+     * <p>
+     * Only the tops of the suit's two piles matter, so this is a breadth first search over those (at most 12 * 13).
+     */
+    private static void addWaysOn(CardGame game, List<CardMove[]> moves, int[][] reserve, int free, int suit, int rank, int pile) {
+        int[] suitReserve = reserve == null ? null : reserve[suit];
+        int aceStart = game.getAcePiles().get(suit).size() - 1;
+        int kingStart = RANKS - game.getKingPiles().get(suit).size();
+        int code = CardGame.FOUNDATION_SUITS[suit].ordinal() * RANKS + rank;
+        if (aceStart + 1 != kingStart) {
+            //Unless the reserve can fill the gap to the card on one side, or fill the gap between the piles so they
+            //meet and can slide, the card can't go on at all
+            if (!canFillGap(suitReserve, aceStart + 1, rank) && !canFillGap(suitReserve, rank + 1, kingStart)
+                    && !canFillGap(suitReserve, aceStart + 1, kingStart)) {
+                return;
+            }
+            if (!anyInReserve(suitReserve)) {
+                //Nothing to put on first either, so it's the one search step
+                moves.add(new CardMove[]{onFoundation(code, free, suit, pile, aceStart + 1 == rank)});
+                return;
+            }
+        }
+        //How each pair of tops was first reached
+        int[] from = new int[RANKS * RANKS];
+        int[] by = new int[RANKS * RANKS];
+        Arrays.fill(from, -1);
+        int start = aceStart * RANKS + kingStart;
+        from[start] = start;
+        int[] queue = new int[RANKS * RANKS];
+        int queued = 0;
+        queue[queued++] = start;
+        //Piles' tops after the card goes on that already have a move, the last for met piles
+        boolean[] outcomes = new boolean[RANKS * RANKS + 1];
+        for (int head = 0; head < queued; head++) {
+            int ace = queue[head] / RANKS;
+            int king = queue[head] % RANKS;
+            if (ace + 1 == rank || king - 1 == rank) {
+                boolean onAce = ace + 1 == rank;
+                int aceAfter = onAce ? rank : ace;
+                int kingAfter = onAce ? king : rank;
+                //Where met piles meet doesn't matter
+                int outcome = aceAfter + 1 == kingAfter ? RANKS * RANKS : aceAfter * RANKS + kingAfter;
+                if (!outcomes[outcome]) {
+                    outcomes[outcome] = true;
+                    moves.add(wayOn(free, suit, from, by, queue[head], code, pile, onAce));
+                }
+            }
+            //The ace pile stops at the queen
+            if (ace + 1 < RANKS - 1 && inReserve(suitReserve, ace + 1, aceStart, kingStart, ace + 1, king)) {
+                queued = reach(queue, queued, from, by, queue[head], (ace + 1) * RANKS + king, PUT_ON_ACE);
+            }
+            if (king > 0 && inReserve(suitReserve, king - 1, aceStart, kingStart, ace, king - 1)) {
+                queued = reach(queue, queued, from, by, queue[head], ace * RANKS + king - 1, PUT_ON_KING);
+            }
+            if (ace + 1 == king) {
+                //Neither pile can be emptied
+                if (ace > 0) {
+                    queued = reach(queue, queued, from, by, queue[head], (ace - 1) * RANKS + king - 1, SLIDE_TO_KING);
+                }
+                if (king < RANKS - 1) {
+                    queued = reach(queue, queued, from, by, queue[head], (ace + 1) * RANKS + king + 1, SLIDE_TO_ACE);
+                }
+            }
+        }
+    }
+
+    private static int reach(int[] queue, int queued, int[] from, int[] by, int tops, int next, int how) {
+        if (from[next] == -1) {
+            from[next] = tops;
+            by[next] = how;
+            queue[queued++] = next;
+        }
+        return queued;
+    }
+
+    //Whether the reserve has a card of every rank from first up to before last, with last past first
+    private static boolean canFillGap(int[] reserve, int first, int last) {
+        if (last < first) {
+            return false;
+        }
+        for (int rank = first; rank < last; rank++) {
+            if (reserve == null || reserve[rank] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean anyInReserve(int[] reserve) {
+        if (reserve != null) {
+            for (int count : reserve) {
+                if (count > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    //Whether there is a reserve card of the rank left to use once the piles' tops are aceTo and kingTo
+    private static boolean inReserve(int[] reserve, int rank, int aceStart, int kingStart, int aceTo, int kingTo) {
+        if (reserve == null) {
+            return false;
+        }
+        //Slides don't use anything up, so what has been used is whatever is on the piles now that wasn't before
+        int used = (rank <= aceTo ? 1 : 0) + (rank >= kingTo ? 1 : 0) - (rank <= aceStart ? 1 : 0) - (rank >= kingStart ? 1 : 0);
+        return used <= reserve[rank];
+    }
+
+    private static CardMove[] wayOn(int free, int suit, int[] from, int[] by, int tops, int code, int pile, boolean onAce) {
+        List<Integer> steps = new ArrayList<Integer>();
+        for (int at = tops; from[at] != at; at = from[at]) {
+            steps.add(at);
+        }
+        Collections.reverse(steps);
+        CardMove[] moves = new CardMove[steps.size() + 1];
+        int suitCode = code - code % RANKS;
+        for (int i = 0; i < steps.size(); i++) {
+            int ace = steps.get(i) / RANKS;
+            int king = steps.get(i) % RANKS;
+            switch (by[steps.get(i)]) {
+                case PUT_ON_ACE:
+                    moves[i] = new Take(suitCode + ace, free, suit, CardMove.MOVE_TYPE_TO.TO_ACE_PILES);
+                    break;
+                case PUT_ON_KING:
+                    moves[i] = new Take(suitCode + king, free, suit, CardMove.MOVE_TYPE_TO.TO_KING_PILES);
+                    break;
+                case SLIDE_TO_KING:
+                    moves[i] = GameEngine.move(suit, CardMoveImpl.MOVE_TYPE_FROM.FROM_ACE_PILES, suit, CardMove.MOVE_TYPE_TO.TO_KING_PILES);
+                    break;
+                case SLIDE_TO_ACE:
+                    moves[i] = GameEngine.move(suit, CardMoveImpl.MOVE_TYPE_FROM.FROM_KING_PILES, suit, CardMove.MOVE_TYPE_TO.TO_ACE_PILES);
+                    break;
+            }
+        }
+        moves[steps.size()] = onFoundation(code, free, suit, pile, onAce);
+        return moves;
+    }
+
+    //The card going on from the top of the pile, or the reserve if pile is -1
+    private static CardMove onFoundation(int code, int free, int suit, int pile, boolean onAce) {
+        CardMove.MOVE_TYPE_TO to = onAce ? CardMove.MOVE_TYPE_TO.TO_ACE_PILES : CardMove.MOVE_TYPE_TO.TO_KING_PILES;
+        return pile == -1 ? new Take(code, free, suit, to) : GameEngine.move(pile, CardMoveImpl.MOVE_TYPE_FROM.FROM_BOARD, suit, to);
+    }
+
+    private static int foundationIndex(Card.Suit suit) {
+        for (int i = 0; i < CardGame.FOUNDATION_SUITS.length; i++) {
+            if (CardGame.FOUNDATION_SUITS[i] == suit) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No foundation for " + suit);
+    }
+
+    /**
+     * Turns the path found into moves a player could make from the start. Before each hand goes back to the board
+     * it is put in the order its cards get taken off in, and reserve cards are looked for by suit and rank as the
+     * orders differ from the search's. The engine's game must be at start, and is left there.
+     */
+    static List<CardMove> playable(GameEngine engine, CompactState start, List<CardMove> path) {
+        CardGame game = engine.getGame();
+        int historySize = game.getHistory().size();
+        //Which pile each Take was from, and for deck clicks which pile went back to the board and which became the hand
+        int[] takenFrom = new int[path.size()];
+        int[] handIndexes = new int[path.size()];
+        int[] clickRanks = new int[path.size()];
+        for (int i = 0; i < path.size(); i++) {
+            CardMove move = path.get(i);
+            if (move instanceof DeckClickMove) {
+                Hand hand = game.getHand();
+                handIndexes[i] = hand == null ? -1 : hand.getIndex();
+                clickRanks[i] = game.getDeck().peek().getRank().ordinal();
+            }
+            engine.apply(move);
+            if (move instanceof Take) {
+                takenFrom[i] = ((Take) move).pile;
+            }
+        }
+        while (game.getHistory().size() > historySize) {
+            engine.undo();
+        }
+
+        CardGame real = new CardGame();
+        start.applyTo(real);
+        GameEngine realEngine = new GameEngine(real);
+        List<CardMove> moves = new ArrayList<CardMove>();
+        for (int i = 0; i < path.size(); i++) {
+            CardMove move = path.get(i);
+            if (move instanceof DeckClickMove) {
+                //Nothing to order if there is no hand, or it goes straight back to being the hand
+                if (handIndexes[i] != -1 && handIndexes[i] != clickRanks[i]) {
+                    orderHand(realEngine, moves, takenOff(handIndexes[i], path, takenFrom, clickRanks, i + 1));
+                }
+                make(realEngine, moves, new DeckClickMove());
+            } else if (move instanceof Take) {
+                Take take = (Take) move;
+                if (takenFrom[i] == -1) {
+                    List<Card> hand = real.getHand().getList();
+                    int index = indexOf(hand, take.code, hand.size());
+                    make(realEngine, moves, GameEngine.move(index, CardMoveImpl.MOVE_TYPE_FROM.FROM_HAND, take.suit, take.to));
+                } else {
+                    make(realEngine, moves, GameEngine.move(takenFrom[i], CardMoveImpl.MOVE_TYPE_FROM.FROM_BOARD, take.suit, take.to));
+                }
+            } else {
+                make(realEngine, moves, move);
+            }
+        }
+        return moves;
+    }
+
+    //The cards taken off the pile, first first, until it next becomes the hand
+    private static List<Integer> takenOff(int pile, List<CardMove> path, int[] takenFrom, int[] clickRanks, int from) {
+        List<Integer> taken = new ArrayList<Integer>();
+        for (int i = from; i < path.size(); i++) {
+            CardMove move = path.get(i);
+            if (move instanceof DeckClickMove && clickRanks[i] == pile) {
+                break;
+            }
+            if (move instanceof Take && takenFrom[i] == pile) {
+                taken.add(((Take) move).code);
+            }
+        }
+        return taken;
+    }
+
+    //Moves cards to the top one at a time so the first to be taken ends up on top
+    private static void orderHand(GameEngine engine, List<CardMove> moves, List<Integer> taken) {
+        List<Card> hand = engine.getGame().getHand().getList();
+        List<Integer> order = new ArrayList<Integer>();
+        for (Card card : hand) {
+            order.add(CompactState.code(card));
+        }
+        for (Integer code : taken) {
+            order.remove(code);
+        }
+        for (int i = taken.size() - 1; i >= 0; i--) {
+            order.add(taken.get(i));
+        }
+        int top = hand.size() - 1;
+        for (int i = 0; i < order.size(); i++) {
+            //Everything above hand.size() - i is already in place
+            int index = indexOf(hand, order.get(i), hand.size() - i);
+            if (index != top) {
+                make(engine, moves, GameEngine.move(index, CardMoveImpl.MOVE_TYPE_FROM.FROM_HAND, top, CardMove.MOVE_TYPE_TO.TO_HAND));
+            }
+        }
+    }
+
+    private static int indexOf(List<Card> cards, int code, int before) {
+        for (int i = 0; i < before; i++) {
+            if (CompactState.code(cards.get(i)) == code) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No " + CompactState.card(code) + " in " + cards);
+    }
+
+    private static void make(GameEngine engine, List<CardMove> moves, CardMove move) {
+        MoveResult result = engine.apply(move);
+        if (!result.isOk()) {
+            throw new IllegalStateException("Solution move " + move + " failed: " + result);
+        }
+        moves.add(move);
+    }
+
+    public static enum Status {WON, LOST, GAVE_UP}
+
+    public static class Result {
+        private final Status status;
+        private final List<CardMove> moves;
+        private final long nodes;
+        private final int states;
+
+        Result(Status status, List<CardMove> moves, long nodes, int states) {
+            this.status = status;
+            this.moves = moves;
+            this.nodes = nodes;
+            this.states = states;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * The moves that win from the position solved, in order. Empty unless WON.
+         */
+        public List<CardMove> getMoves() {
+            return moves;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public int getStates() {
+            return states;
+        }
+
+        public String toString() {
+            return status + " in " + moves.size() + " moves, " + nodes + " nodes, " + states + " states";
+        }
+    }
+
+    static class Frame {
+        final List<CardMove[]> moves;
+        //Board piles that are a returned hand, one bit each
+        final int free;
+        int next = 0;
+        //What got us here, to be taken back once everything from here has been tried
+        CardMove[] made;
+
+        Frame(List<CardMove[]> moves, int free) {
+            this.moves = moves;
+            this.free = free;
+        }
+    }
+
+    /**
+     * Puts a reserve card on a foundation wherever it is in the hand or a returned hand. Only the search makes
+     * these, they are turned into ordinary moves once the order of each hand is known.
+     * <p>
+     * The card is looked for by suit and rank, hand first, the same order the reserve lists them in. That way a path
+     * can be replayed on any copy of the position, not just the game whose cards it was made from.
+     */
+    private static class Take implements CardMove {
+        private final int code;
+        private final int free;
+        private final int suit;
+        private final MOVE_TYPE_TO to;
+        //Where the card was, pile -1 being the hand
+        private int pile;
+        private int index;
+
+        private Take(int code, int free, int suit, MOVE_TYPE_TO to) {
+            this.code = code;
+            this.free = free;
+            this.suit = suit;
+            this.to = to;
+        }
+
+        @Override
+        public MoveResult makeMove(CardGame game) {
+            List<Card> from = game.getHand().getList();
+            pile = -1;
+            index = find(from);
+            for (int i = 0; index == -1; i++) {
+                if ((free & (1 << i)) != 0) {
+                    from = game.getBoard().get(i);
+                    pile = i;
+                    index = find(from);
+                }
+            }
+            List<Card> foundation = foundation(game);
+            game.moveCard(from, index, foundation, foundation.size());
+            return MoveResult.OK;
+        }
+
+        private int find(List<Card> cards) {
+            for (int i = 0; i < cards.size(); i++) {
+                if (CompactState.code(cards.get(i)) == code) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int encode() {
+            return pile == -1 ? MoveLog.card(CardMoveImpl.MOVE_TYPE_FROM.FROM_HAND, 0, index, to, suit)
+                    : MoveLog.card(CardMoveImpl.MOVE_TYPE_FROM.FROM_BOARD, pile, index, to, suit);
+        }
+
+        private List<Card> foundation(CardGame game) {
+            return to == MOVE_TYPE_TO.TO_ACE_PILES ? game.getAcePiles().get(suit) : game.getKingPiles().get(suit);
+        }
+
+        @Override
+        public void cardReleased(int indexTo, MOVE_TYPE_TO toHand) {
+
+        }
+
+        public String toString() {
+            return "Take " + CompactState.card(code) + " TO " + suit + " " + to;
+        }
+    }
+}
@@ -1,62 +1,377 @@
 package com.andrewlensen.kingsAndAces.game;
 
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
+import java.util.zip.CRC32;
 
 /**
- * Created by Andrew on 1/01/14.
+ * The player's stats, loaded once and kept in memory. Changes are written out in the background a moment later,
+ * together with any others made meanwhile, so nothing that changes or reads them waits on the disk.
+ * <p>
+ * Besides the totals it keeps, for won games, a QuantileSketch of the times and a histogram of the moves, and
+ * whether each of the last RECENT_GAMES was won. All of it is updated a game at a time, so showing the stats takes
+ * the same time after ten games as after ten thousand.
+ * <p>
+ * They're kept in FILE: MAGIC, VERSION, the wins, losses, best time and lowest moves as big endian ints, the time
+ * sketch, the moves histogram, the recent games, then a CRC32 of all that, written the same all-or-nothing way as
+ * SavedGame. If FILE isn't there yet the stats older versions kept in Preferences are copied over, once.
+ * <p>
+ * Every finished game is also added to RESULTS_FILE, for looking through elsewhere: RESULTS_MAGIC, RESULTS_VERSION,
+ * then for each game its deal number (8 bytes), 1 if won (1 byte), the elapsed milliseconds, moves and undos
+ * (4 bytes each). Resetting the stats leaves it alone.
  */
 public class StorageManager {
-    public static final Preferences prefs = Preferences.userRoot().node("/settings/kingsAndAces");
+    public static final File FILE = new File(System.getProperty("user.home"), ".kingsAndAces/stats.kas");
+    public static final File RESULTS_FILE = new File(System.getProperty("user.home"), ".kingsAndAces/results.kal");
+    //Moves each bar of the histogram covers, the last bar taking everything above
+    public static final int MOVES_PER_BAR = 50;
+    public static final int MOVES_BARS = 21;
+    //Games the recent win rate is over
+    public static final int RECENT_GAMES = 100;
 
-    public static int getBestTime() {
-        return prefs.getInt("bestTime", Integer.MAX_VALUE);
+    //Where older versions kept the stats
+    private static final String PREFS_NODE = "/settings/kingsAndAces";
+    //"KAAT"
+    private static final int MAGIC = 0x4B414154;
+    //"KAAL"
+    private static final int RESULTS_MAGIC = 0x4B41414C;
+    private static final int RESULTS_VERSION = 1;
+    private static final int VERSION = 2;
+    //The whole of a version 1 file, which only had the totals
+    private static final int VERSION_1_LENGTH = 4 * 6 + 4;
+    //How long a change waits for others to be written with it
+    private static final long WRITE_DELAY_MILLIS = 500;
+
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Stats");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    //Held while writing, so writes go out one at a time in the order the changes were made
+    private static final Object WRITE_LOCK = new Object();
+    private static final Runnable WRITE = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    //All guarded by the class
+    private static int wins;
+    private static int losses;
+    private static int bestTime = Integer.MAX_VALUE;
+    private static int lowestMoves = Integer.MAX_VALUE;
+    private static final QuantileSketch winningTimes = new QuantileSketch();
+    private static final int[] winningMoves = new int[MOVES_BARS];
+    //A ring of the last RECENT_GAMES, true for a win
+    private static final boolean[] recent = new boolean[RECENT_GAMES];
+    private static int recentNext;
+    private static int recentCount;
+    private static int recentWins;
+    //Finished games not in the results log yet
+    private static List<GameResult> unwritten = new ArrayList<GameResult>();
+    //Bumped by every change, so flush knows if there's anything to write
+    private static long changes;
+    private static long written;
+    private static boolean writeQueued;
+
+    static {
+        load();
+        //Catches whatever the writer hasn't got to, however the app exits
+        Runtime.getRuntime().addShutdownHook(new Thread("Stats flush") {
+            public void run() {
+                flush();
+            }
+        });
     }
 
-    public static void setBestTime(int bestTime) {
-        prefs.putInt("bestTime", bestTime);
+    public static synchronized int getBestTime() {
+        return bestTime;
     }
 
-    public static int getLowestMoves() {
-        return prefs.getInt("lowestMoves", Integer.MAX_VALUE);
+    public static synchronized void setBestTime(int bestTime) {
+        StorageManager.bestTime = bestTime;
+        changed();
     }
 
-    public static void setLowestMoves(int lowestMoves) {
-        prefs.putInt("lowestMoves", lowestMoves);
+    public static synchronized int getLowestMoves() {
+        return lowestMoves;
     }
 
-    public static double getRatio() {
-        int losses = getLosses();
-        int wins = getWins();
+    public static synchronized void setLowestMoves(int lowestMoves) {
+        StorageManager.lowestMoves = lowestMoves;
+        changed();
+    }
+
+    public static synchronized double getRatio() {
         return losses == 0 ? 0 : ((double) wins) / ((double) losses + wins);
     }
 
-    public static int getLosses() {
-        return (int) prefs.getInt("losses", 0);
+    public static synchronized int getLosses() {
+        return losses;
+    }
+
+    public static synchronized int getWins() {
+        return wins;
+    }
+
+    /**
+     * Counts a game that's over, won or lost, and adds it to the results log.
+     */
+    public static synchronized void finished(GameResult result) {
+        if (result.isWon()) {
+            wins++;
+            lowestMoves = Math.min(lowestMoves, result.getMoves());
+            bestTime = Math.min(bestTime, result.getElapsedMillis());
+            winningTimes.add(result.getElapsedMillis());
+            winningMoves[Math.min(result.getMoves() / MOVES_PER_BAR, MOVES_BARS - 1)]++;
+        } else {
+            losses++;
+        }
+        if (recentCount == RECENT_GAMES) {
+            recentWins -= recent[recentNext] ? 1 : 0;
+        } else {
+            recentCount++;
+        }
+        recent[recentNext] = result.isWon();
+        recentWins += result.isWon() ? 1 : 0;
+        recentNext = (recentNext + 1) % RECENT_GAMES;
+        unwritten.add(result);
+        changed();
+    }
+
+    /**
+     * The time (in milliseconds) q of the way up the won games' times, 0.5 being the median. -1 if none have been
+     * won since the time sketch was started.
+     */
+    public static synchronized int getWinningTime(double q) {
+        return winningTimes.quantile(q);
+    }
+
+    /**
+     * How many won games took 0 to MOVES_PER_BAR - 1 moves, how many the next MOVES_PER_BAR and so on.
+     */
+    public static synchronized int[] getWinningMoves() {
+        return winningMoves.clone();
+    }
+
+    /**
+     * The win rate over the last RECENT_GAMES games, or all of them if there haven't been that many.
+     */
+    public static synchronized double getRecentWinRate() {
+        return recentCount == 0 ? 0 : (double) recentWins / recentCount;
     }
 
-    public static int getWins() {
-        return (int) prefs.getInt("wins", 0);
+    public static synchronized int getRecentGames() {
+        return recentCount;
     }
 
-    public static void win(int elapsedTime, int numMoves) {
-        prefs.putInt("wins", prefs.getInt("wins", 0) + 1);
-        if (getLowestMoves() > numMoves) {
-            setLowestMoves(numMoves);
+    public static synchronized void reset() {
+        wins = 0;
+        losses = 0;
+        bestTime = Integer.MAX_VALUE;
+        lowestMoves = Integer.MAX_VALUE;
+        winningTimes.clear();
+        Arrays.fill(winningMoves, 0);
+        Arrays.fill(recent, false);
+        recentNext = 0;
+        recentCount = 0;
+        recentWins = 0;
+        changed();
+    }
+
+    //Must hold the class
+    private static void changed() {
+        changes++;
+        if (!writeQueued) {
+            writeQueued = true;
+            writer.schedule(WRITE, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes out any changes now, rather than waiting for the writer. Can be run on any thread.
+     */
+    public static void flush() {
+        synchronized (WRITE_LOCK) {
+            byte[] bytes;
+            long version;
+            List<GameResult> results;
+            synchronized (StorageManager.class) {
+                writeQueued = false;
+                if (changes == written) {
+                    return;
+                }
+                version = changes;
+                bytes = toBytes();
+                results = unwritten;
+                unwritten = new ArrayList<GameResult>();
+            }
+            try {
+                appendResults(results);
+            } catch (IOException e) {
+                e.printStackTrace();
+                //Tried again with the next game to finish, ahead of it
+                synchronized (StorageManager.class) {
+                    results.addAll(unwritten);
+                    unwritten = results;
+                }
+            }
+            try {
+                SavedGame.writeAtomically(FILE, bytes);
+                synchronized (StorageManager.class) {
+                    written = version;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
-        if (getBestTime() > elapsedTime) {
-            setBestTime(elapsedTime);
+    }
+
+    private static void appendResults(List<GameResult> results) throws IOException {
+        if (results.isEmpty()) {
+            return;
+        }
+        File dir = RESULTS_FILE.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't make " + dir);
+        }
+        FileChannel channel = FileChannel.open(RESULTS_FILE.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        try {
+            boolean empty = channel.size() == 0;
+            ByteBuffer buffer = ByteBuffer.allocate((empty ? 8 : 0) + results.size() * GameResult.BYTES);
+            if (empty) {
+                buffer.putInt(RESULTS_MAGIC).putInt(RESULTS_VERSION);
+            }
+            for (GameResult result : results) {
+                buffer.putLong(result.getDealNumber());
+                buffer.put((byte) (result.isWon() ? 1 : 0));
+                buffer.putInt(result.getElapsedMillis());
+                buffer.putInt(result.getMoves());
+                buffer.putInt(result.getUndos());
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
         }
     }
 
-    public static void loss() {
-        prefs.putInt("losses", prefs.getInt("losses", 0) + 1);
+    //Must hold the class
+    private static byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(wins);
+            out.writeInt(losses);
+            out.writeInt(bestTime);
+            out.writeInt(lowestMoves);
+            winningTimes.write(out);
+            for (int bar : winningMoves) {
+                out.writeInt(bar);
+            }
+            out.writeInt(recentCount);
+            out.writeInt(recentNext);
+            for (boolean won : recent) {
+                out.writeBoolean(won);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            //Can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static synchronized void load() {
+        if (!FILE.exists()) {
+            migrate();
+            return;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(FILE.toPath());
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, Math.max(bytes.length - 4, 0));
+            if (bytes.length < VERSION_1_LENGTH || in.getInt(bytes.length - 4) != (int) crc.getValue()
+                    || in.getInt() != MAGIC) {
+                throw new IOException(FILE + " isn't stats");
+            }
+            int version = in.getInt();
+            if (version > VERSION) {
+                throw new IOException("Can't read version " + version + " stats");
+            }
+            wins = in.getInt();
+            losses = in.getInt();
+            bestTime = in.getInt();
+            lowestMoves = in.getInt();
+            if (version == 1) {
+                //Upgrade the file, the rest starts from now
+                changed();
+                return;
+            }
+            winningTimes.read(in);
+            for (int i = 0; i < MOVES_BARS; i++) {
+                winningMoves[i] = in.getInt();
+            }
+            recentCount = in.getInt();
+            recentNext = in.getInt();
+            for (int i = 0; i < RECENT_GAMES; i++) {
+                recent[i] = in.get() != 0;
+            }
+            //Only the recentCount games before recentNext, the rest are left over from before a reset
+            for (int i = 1; i <= recentCount; i++) {
+                recentWins += recent[(recentNext - i + RECENT_GAMES) % RECENT_GAMES] ? 1 : 0;
+            }
+            written = changes;
+        } catch (RuntimeException e) {
+            //Got past the CRC but doesn't fit, only a bug could do that
+            e.printStackTrace();
+        } catch (IOException e) {
+            //Start again rather than lose every game from now on too
+            e.printStackTrace();
+        }
     }
 
-    public static void reset() {
+    //Copies over the stats from Preferences, where older versions kept them
+    private static void migrate() {
         try {
-            prefs.clear();
+            if (!Preferences.userRoot().nodeExists(PREFS_NODE)) {
+                return;
+            }
+            Preferences prefs = Preferences.userRoot().node(PREFS_NODE);
+            wins = prefs.getInt("wins", 0);
+            losses = prefs.getInt("losses", 0);
+            bestTime = prefs.getInt("bestTime", Integer.MAX_VALUE);
+            lowestMoves = prefs.getInt("lowestMoves", Integer.MAX_VALUE);
+            changed();
         } catch (BackingStoreException e) {
             e.printStackTrace();
         }
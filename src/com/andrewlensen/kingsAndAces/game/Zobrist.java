@@ -0,0 +1,164 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import java.util.List;
+
+/**
+ * 64 bit Zobrist hashing of positions. Every card has a random key for each place it can be (which pile and how far
+ * up it), as do the hand's index and the deal flags, and a position's hash is all of its keys xored together.
+ * Moving a card just xors out its old key and xors in its new one, so CardGame keeps its hash up to date as it goes
+ * rather than going over all 104 cards each time.
+ * <p>
+ * Keys are made by mixing the place and card code rather than kept in a table, which would be over a megabyte.
+ * <p>
+ * canonical gives Solver a hash that leaves out what its search doesn't care about. It starts from the hash and
+ * the per section hashes CardGame keeps up to date, rather than from scratch.
+ * Run with -DkingsAndAces.verifyHash=true to have CardGame check its hash against of() after every change.
+ */
+public final class Zobrist {
+    public static final boolean VERIFY = Boolean.getBoolean("kingsAndAces.verifyHash");
+
+    //Sections, the board piles being 0 to 11. The pack is counted from its bottom so dealing doesn't move anything.
+    static final int DECK = CardGame.BOARD_PILES;
+    static final int HAND = DECK + 1;
+    static final int PACK = HAND + 1;
+    static final int KING_PILES = PACK + 1;
+    static final int ACE_PILES = KING_PILES + 4;
+    static final int SECTIONS = ACE_PILES + 4;
+    private static final int HAND_INDEX = SECTIONS;
+
+    static final long HAS_DEALT = key(HAND_INDEX + 1, 0, 0);
+    static final long CAN_ADD_TO_DECK = key(HAND_INDEX + 2, 0, 0);
+    //For canonical: a suit's piles having met, a board pile being a returned hand, and a card being somewhere in a
+    //section whose order doesn't matter
+    private static final int MET = HAND_INDEX + 3;
+    private static final int FREE = HAND_INDEX + 4;
+    private static final int ANYWHERE = HAND_INDEX + 5;
+
+    private static final long SALT = 0x5DEECE66DL;
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    private static final long[] MET_KEYS = keys(MET, 4);
+    private static final long[] FREE_KEYS = keys(FREE, CardGame.BOARD_PILES);
+    private static final long[] ANYWHERE_KEYS = keys(ANYWHERE, 4 * 13);
+
+    private Zobrist() {
+    }
+
+    private static long[] keys(int section, int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = key(section, i, 0);
+        }
+        return keys;
+    }
+
+    /**
+     * The key for the card being position cards up from the bottom of the section.
+     */
+    static long card(int section, int position, Card card) {
+        return key(section, position, CompactState.code(card));
+    }
+
+    /**
+     * The key for the hand being the pile at index, -1 for no pile.
+     */
+    static long handIndex(int index) {
+        return key(HAND_INDEX, index + 1, 0);
+    }
+
+    private static long key(int section, int position, int code) {
+        return DealCatalog.mix(SALT + ((section * 128L + position) * 64 + code) * GAMMA);
+    }
+
+    /**
+     * Works the hash out from scratch.
+     */
+    public static long of(CardGame game) {
+        return of(game, new long[SECTIONS]);
+    }
+
+    /**
+     * Works the hash out from scratch, putting the part that comes from each section's cards in sections.
+     */
+    static long of(CardGame game, long[] sections) {
+        List<List<Card>> board = game.getBoard();
+        for (int i = 0; i < CardGame.BOARD_PILES; i++) {
+            sections[i] = i < board.size() ? cards(i, board.get(i)) : 0;
+        }
+        sections[DECK] = cards(DECK, game.getDeck());
+        Hand hand = game.getHand();
+        sections[HAND] = hand == null ? 0 : cards(HAND, hand.getList());
+        sections[PACK] = 0;
+        List<Card> pack = game.getPack();
+        if (pack != null) {
+            for (int i = 0; i < pack.size(); i++) {
+                sections[PACK] ^= card(PACK, pack.size() - 1 - i, pack.get(i));
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            sections[KING_PILES + i] = i < game.getKingPiles().size() ? cards(KING_PILES + i, game.getKingPiles().get(i)) : 0;
+            sections[ACE_PILES + i] = i < game.getAcePiles().size() ? cards(ACE_PILES + i, game.getAcePiles().get(i)) : 0;
+        }
+        long hash = handIndex(hand == null ? -1 : hand.getIndex());
+        for (long section : sections) {
+            hash ^= section;
+        }
+        if (game.hasDealt()) {
+            hash ^= HAS_DEALT;
+        }
+        if (game.canAddToDeckFromBoard()) {
+            hash ^= CAN_ADD_TO_DECK;
+        }
+        return hash;
+    }
+
+    /**
+     * The hash of the game's position as Solver sees it, equal for any two positions Solver.key treats as the same.
+     * The order of the hand and of each board pile in free (a bit for each pile, see Solver) is left out, as is
+     * where a suit's king and ace piles meet once they have. Those sections' hashes are taken out of getHash() and
+     * each is replaced by a key made from the sum of its cards' keys, which doesn't depend on order. Summing rather
+     * than xoring means the two copies of a card don't cancel out. That costs a lookup for each card in those
+     * sections, with no need to work out their ordered keys again.
+     */
+    static long canonical(CardGame game, int free) {
+        long hash = game.getHash();
+        long anywhere = 0;
+        Hand hand = game.getHand();
+        if (hand != null) {
+            hash ^= game.getSectionHash(HAND);
+            anywhere += anywhere(HAND, hand.getList());
+        }
+        List<List<Card>> board = game.getBoard();
+        for (int i = 0; free != 0; i++, free >>>= 1) {
+            //Order can't matter with one card, so it's the same as a pile that was never the hand
+            if ((free & 1) != 0 && board.get(i).size() > 1) {
+                hash ^= game.getSectionHash(i) ^ FREE_KEYS[i];
+                anywhere += anywhere(i, board.get(i));
+            }
+        }
+        for (int i = 0; i < game.getKingPiles().size(); i++) {
+            if (game.getKingPiles().get(i).size() + game.getAcePiles().get(i).size() == Card.Rank.values().length) {
+                hash ^= game.getSectionHash(KING_PILES + i) ^ game.getSectionHash(ACE_PILES + i) ^ MET_KEYS[i];
+            }
+        }
+        return hash + anywhere;
+    }
+
+    private static long anywhere(int section, List<Card> cards) {
+        long sum = 0;
+        for (int i = 0; i < cards.size(); i++) {
+            sum += ANYWHERE_KEYS[CompactState.code(cards.get(i))];
+        }
+        //Mixed with the section so that sections holding the same cards between them add up differently
+        return DealCatalog.mix(sum + section * GAMMA);
+    }
+
+    private static long cards(int section, List<Card> cards) {
+        long hash = 0;
+        int position = 0;
+        for (Card card : cards) {
+            hash ^= card(section, position++, card);
+        }
+        return hash;
+    }
+}
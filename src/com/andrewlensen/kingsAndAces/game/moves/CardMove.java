@@ -1,15 +1,17 @@
 package com.andrewlensen.kingsAndAces.game.moves;
 
 import com.andrewlensen.kingsAndAces.game.CardGame;
-import com.andrewlensen.kingsAndAces.gui.CardPanel;
 
 /**
  * Created by Andrew on 9/03/14.
  */
 public interface CardMove {
-    public String makeMove(CardGame game, CardPanel panel);
+    public MoveResult makeMove(CardGame game);
 
-    public boolean undo(CardGame game, CardPanel panel);
+    /**
+     * The move packed for the game's MoveLog, with what it takes to undo it. Only right straight after it's made.
+     */
+    public int encode();
 
     void cardReleased(int indexTo, MOVE_TYPE_TO toHand);
 
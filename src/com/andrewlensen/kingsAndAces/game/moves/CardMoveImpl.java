@@ -2,7 +2,7 @@ package com.andrewlensen.kingsAndAces.game.moves;
 
 import com.andrewlensen.kingsAndAces.game.Card;
 import com.andrewlensen.kingsAndAces.game.CardGame;
-import com.andrewlensen.kingsAndAces.gui.CardPanel;
+import com.andrewlensen.kingsAndAces.game.MoveLog;
 
 import java.util.List;
 
@@ -23,7 +23,7 @@ public class CardMoveImpl implements CardMove {
         this.moveTypeTo = move_type_to;
     }
 
-    public String makeMove(CardGame game, CardPanel panel) {
+    public MoveResult makeMove(CardGame game) {
         if (indexTo != -1) {
 
             switch (moveTypeFrom) {
@@ -39,10 +39,10 @@ public class CardMoveImpl implements CardMove {
                     return makeHandMove(game);
             }
         }
-        return "ERROR";
+        return MoveResult.ERROR;
     }
 
-    private String makeHandMove(CardGame game) {
+    private MoveResult makeHandMove(CardGame game) {
         switch (moveTypeTo) {
 
             case TO_ACE_PILES:
@@ -56,11 +56,11 @@ public class CardMoveImpl implements CardMove {
 
 
         }
-        return "ERROR";
+        return MoveResult.ERROR;
 
     }
 
-    private String makeBoardMove(CardGame game) {
+    private MoveResult makeBoardMove(CardGame game) {
         switch (moveTypeTo) {
             case TO_ACE_PILES:
                 return game.moveCardOntoAceFromBoard(indexFrom, indexTo);
@@ -69,50 +69,129 @@ public class CardMoveImpl implements CardMove {
                 return game.moveCardOntoKingFromBoard(indexFrom, indexTo);
 
             case TO_HAND:
-                return "Cannot move to hand.";
+                return MoveResult.NOT_TO_HAND;
 
             case TO_DECK:
                 return game.addToDeck(indexFrom);
         }
-        return "ERROR";
+        return MoveResult.ERROR;
     }
 
-    private String makeKingPilesMove(CardGame game) {
+    private MoveResult makeKingPilesMove(CardGame game) {
         switch (moveTypeTo) {
 
             case TO_ACE_PILES:
                 return game.moveCardOntoAceFromKing(indexFrom, indexTo);
 
             case TO_KING_PILES:
-                return "Can only move to a pile of the same suit";
+                return MoveResult.WRONG_SUIT;
 
             case TO_HAND:
-                return "Cannot move to hand.";
+                return MoveResult.NOT_TO_HAND;
 
         }
-        return "ERROR";
+        return MoveResult.ERROR;
 
     }
 
-    private String makeAcePilesMove(CardGame game) {
+    private MoveResult makeAcePilesMove(CardGame game) {
         switch (moveTypeTo) {
 
             case TO_ACE_PILES:
-                return "Can only move to a pile of the same suit";
+                return MoveResult.WRONG_SUIT;
             case TO_KING_PILES:
                 return game.moveCardOntoKingFromAce(indexFrom, indexTo);
             case TO_HAND:
-                return "Cannot move to hand.";
+                return MoveResult.NOT_TO_HAND;
         }
-        return "ERROR";
+        return MoveResult.ERROR;
 
     }
 
 
+    /**
+     * What makeMove would return, without making the move.
+     */
+    public MoveResult validate(CardGame game) {
+        if (indexTo == -1) {
+            return MoveResult.ERROR;
+        }
+        switch (moveTypeTo) {
+            case TO_HAND:
+                return moveTypeFrom == MOVE_TYPE_FROM.FROM_HAND ? MoveResult.OK : MoveResult.NOT_TO_HAND;
+            case TO_DECK:
+                if (moveTypeFrom != MOVE_TYPE_FROM.FROM_BOARD) {
+                    return MoveResult.ERROR;
+                }
+                return game.canAddToDeck(indexFrom) ? MoveResult.OK : MoveResult.WRONG_RANK_FOR_DECK;
+        }
+        boolean toAce = moveTypeTo == MOVE_TYPE_TO.TO_ACE_PILES;
+        if (moveTypeFrom == (toAce ? MOVE_TYPE_FROM.FROM_ACE_PILES : MOVE_TYPE_FROM.FROM_KING_PILES)) {
+            return MoveResult.WRONG_SUIT;
+        }
+        if (moveTypeFrom == MOVE_TYPE_FROM.FROM_ACE_PILES || moveTypeFrom == MOVE_TYPE_FROM.FROM_KING_PILES) {
+            if (from(game).size() == 1) {
+                return MoveResult.LAST_CARD;
+            }
+        }
+        Card card = getCard(game);
+        if (card == null) {
+            return MoveResult.ERROR;
+        }
+        return toAce ? game.checkOntoAcePile(card, indexTo) : game.checkOntoKingPile(card, indexTo);
+    }
+
+    /**
+     * The card this would move, or null if there isn't one there.
+     */
+    public Card getCard(CardGame game) {
+        List<Card> from = from(game);
+        if (moveTypeFrom == MOVE_TYPE_FROM.FROM_HAND) {
+            return indexFrom < from.size() ? from.get(indexFrom) : null;
+        }
+        return from.isEmpty() ? null : from.get(from.size() - 1);
+    }
+
+    /**
+     * The top card of the foundation this would move onto, or null if it isn't moving onto one.
+     */
+    public Card getTarget(CardGame game) {
+        List<Card> to;
+        if (moveTypeTo == MOVE_TYPE_TO.TO_ACE_PILES) {
+            to = game.getAcePiles().get(indexTo);
+        } else if (moveTypeTo == MOVE_TYPE_TO.TO_KING_PILES) {
+            to = game.getKingPiles().get(indexTo);
+        } else {
+            return null;
+        }
+        return to.get(to.size() - 1);
+    }
+
+    private List<Card> from(CardGame game) {
+        switch (moveTypeFrom) {
+            case FROM_ACE_PILES:
+                return game.getAcePiles().get(indexFrom);
+            case FROM_KING_PILES:
+                return game.getKingPiles().get(indexFrom);
+            case FROM_BOARD:
+                return game.getBoard().get(indexFrom);
+            default:
+                return game.getHand().getList();
+        }
+    }
+
     public int getIndexFrom() {
         return indexFrom;
     }
 
+    public int getIndexTo() {
+        return indexTo;
+    }
+
+    public MOVE_TYPE_TO getMoveTypeTo() {
+        return moveTypeTo;
+    }
+
 
     public String toString() {
         return "FROM:" + indexFrom + (indexTo == -1 ? "" : " TO " + indexTo) + " TYPE FROM: " + moveTypeFrom + " TYPE TO: " + moveTypeTo;
@@ -122,57 +201,10 @@ public class CardMoveImpl implements CardMove {
         return moveTypeFrom;
     }
 
-    public boolean undo(CardGame game, CardPanel panel) {
-        if (moveTypeFrom == MOVE_TYPE_FROM.FROM_HAND) {
-
-            switch (moveTypeTo) {
-
-                case TO_ACE_PILES:
-                    List<Card> fromAce = game.getAcePiles().get(indexTo);
-                    game.getHand().getList().add(indexFrom, fromAce.remove(fromAce.size() - 1));
-                    break;
-                case TO_KING_PILES:
-                    List<Card> fromKing = game.getKingPiles().get(indexTo);
-                    game.getHand().getList().add(indexFrom, fromKing.remove(fromKing.size() - 1));
-                    break;
-                case TO_HAND:
-                    List<Card> hand = game.getHand().getList();
-                    hand.add(indexFrom, hand.remove(indexTo));
-                    return true;
-            }
-
-        } else {
-            List<Card> to = null;
-            List<Card> from = null;
-            switch (moveTypeFrom) {
-                case FROM_ACE_PILES:
-                    to = game.getAcePiles().get(indexFrom);
-                    break;
-                case FROM_KING_PILES:
-                    to = game.getKingPiles().get(indexFrom);
-                    break;
-                case FROM_BOARD:
-                    to = game.getBoard().get(indexFrom);
-                    break;
-            }
-            switch (moveTypeTo) {
-
-                case TO_ACE_PILES:
-                    from = game.getAcePiles().get(indexTo);
-                    break;
-                case TO_KING_PILES:
-                    from = game.getKingPiles().get(indexTo);
-                    break;
-
-                case TO_DECK:
-                    from = game.getDeck();
-                    break;
-            }
-            assert to != null;
-            assert from != null;
-            to.add(from.remove(from.size() - 1));
-        }
-        return true;
+    public int encode() {
+        //Hand cards can come from anywhere in it, everything else comes off the top
+        int position = moveTypeFrom == MOVE_TYPE_FROM.FROM_HAND ? indexFrom : MoveLog.TOP;
+        return MoveLog.card(moveTypeFrom, moveTypeFrom == MOVE_TYPE_FROM.FROM_HAND ? 0 : indexFrom, position, moveTypeTo, indexTo);
     }
 
 
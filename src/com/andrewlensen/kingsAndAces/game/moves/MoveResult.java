@@ -0,0 +1,42 @@
+package com.andrewlensen.kingsAndAces.game.moves;
+
+import com.andrewlensen.kingsAndAces.game.Card;
+
+/**
+ * What happened when a move was made, or would happen if it was. Nothing is allocated until a message is wanted,
+ * which only the GUI needs.
+ */
+public enum MoveResult {
+    OK(""),
+    WRONG_SUIT("Can only move to a pile of the same suit"),
+    NOT_ONE_LOWER(" is not one lower than "),
+    NOT_ONE_HIGHER(" is not one higher than "),
+    LAST_CARD("Cannot move the last card of this pile."),
+    WRONG_RANK_FOR_DECK("Cannot add that to the deck, wrong rank"),
+    NOT_TO_HAND("Cannot move to hand."),
+    ERROR("ERROR");
+
+    private final String message;
+
+    private MoveResult(String message) {
+        this.message = message;
+    }
+
+    public boolean isOk() {
+        return this == OK;
+    }
+
+    /**
+     * The message to show the player. The card moved and the top card it was put on are needed for the rank
+     * mismatches, either can be null if there wasn't one.
+     */
+    public String getMessage(Card moved, Card onto) {
+        if ((this == NOT_ONE_LOWER || this == NOT_ONE_HIGHER)) {
+            if (moved == null || onto == null) {
+                return "Wrong rank";
+            }
+            return moved.getRank().name() + message + onto.getRank().name();
+        }
+        return message;
+    }
+}
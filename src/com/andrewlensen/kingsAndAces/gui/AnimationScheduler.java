@@ -0,0 +1,138 @@
+package com.andrewlensen.kingsAndAces.gui;
+
+import com.andrewlensen.kingsAndAces.game.Card;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.geom.Point2D;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Shows cards flying from the deck to where they were dealt. The game has already put the card in its pile,
+ * we just hide it there until its flight lands.
+ */
+public class AnimationScheduler implements ActionListener {
+    //How long after the previous card each card sets off. Set -Dkingsandaces.dealMillis=0 to deal instantly.
+    private static int millisPerCard = Integer.getInteger("kingsandaces.dealMillis", 50);
+    private static boolean instant = false;
+    //How many cards are in the air at once
+    private static final int CARDS_IN_FLIGHT = 4;
+
+    private final CardPanel panel;
+    private final List<Flight> flights = new CopyOnWriteArrayList<Flight>();
+    private final Timer timer;
+    private long lastStart = 0;
+
+    public AnimationScheduler(CardPanel panel) {
+        this.panel = panel;
+        this.timer = new Timer(1000 / CardPanel.displayRefreshRate(), this);
+    }
+
+    public static int getMillisPerCard() {
+        return millisPerCard;
+    }
+
+    public static void setMillisPerCard(int millisPerCard) {
+        AnimationScheduler.millisPerCard = millisPerCard;
+    }
+
+    public static boolean isInstant() {
+        return instant;
+    }
+
+    public static void setInstant(boolean instant) {
+        AnimationScheduler.instant = instant;
+    }
+
+    /**
+     * Called from the game once the card is in its new pile. Safe to call from any thread.
+     */
+    public void animateDeal(Card card) {
+        if (instant || millisPerCard <= 0) {
+            panel.repaintPileOf(card);
+            return;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, lastStart + millisPerCard * 1000000L);
+            lastStart = start;
+            flights.add(new Flight(card, start, CARDS_IN_FLIGHT * millisPerCard * 1000000L));
+        }
+        //Hide it in its pile until it gets there
+        panel.repaintPileOf(card);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (!timer.isRunning()) {
+                    timer.start();
+                }
+            }
+        });
+    }
+
+    public boolean isInFlight(Card card) {
+        for (Flight flight : flights) {
+            if (flight.card == card) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        long now = System.nanoTime();
+        for (Flight flight : flights) {
+            Point2D.Double target = panel.pileLocationOf(flight.card);
+            if (flight.isDrawn()) {
+                panel.repaintOverlay(panel.cardBounds(flight.x, flight.y));
+            }
+            double progress = (now - flight.start) / (double) flight.duration;
+            if (target == null || progress >= 1) {
+                //Landed, or was taken back by an undo
+                flights.remove(flight);
+                panel.repaintPileOf(flight.card);
+            } else if (progress > 0) {
+                Point2D.Double from = panel.deckLocation();
+                //Ease out so it settles into the pile
+                double eased = 1 - (1 - progress) * (1 - progress);
+                flight.x = from.x + (target.x - from.x) * eased;
+                flight.y = from.y + (target.y - from.y) * eased;
+                panel.repaintOverlay(panel.cardBounds(flight.x, flight.y));
+            }
+        }
+        if (flights.isEmpty()) {
+            timer.stop();
+        }
+    }
+
+    void paintFlights(Graphics2D g) {
+        for (Flight flight : flights) {
+            if (flight.isDrawn()) {
+                ImageManager.drawCard(flight.card, g, flight.x, flight.y);
+            }
+        }
+    }
+
+    private static class Flight {
+        private final Card card;
+        private final long start;
+        private final long duration;
+        //Only touched on the EDT. NaN until it has set off.
+        private double x = Double.NaN;
+        private double y = Double.NaN;
+
+        private Flight(Card card, long start, long duration) {
+            this.card = card;
+            this.start = start;
+            this.duration = duration;
+        }
+
+        private boolean isDrawn() {
+            return !Double.isNaN(x);
+        }
+    }
+}
@@ -1,22 +1,42 @@
 package com.andrewlensen.kingsAndAces.gui;
 
 import com.andrewlensen.kingsAndAces.game.CardGame;
+import com.andrewlensen.kingsAndAces.game.DealCatalog;
+import com.andrewlensen.kingsAndAces.game.GameJournal;
+import com.andrewlensen.kingsAndAces.game.GameLoop;
+import com.andrewlensen.kingsAndAces.game.GameResult;
+import com.andrewlensen.kingsAndAces.game.HintService;
+import com.andrewlensen.kingsAndAces.game.SavedGame;
 import com.andrewlensen.kingsAndAces.game.StorageManager;
+import com.andrewlensen.kingsAndAces.replay.ReplayWriter;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.math.BigInteger;
 import java.text.DecimalFormat;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Andrew on 28/12/13.
  */
 public class CardFrame implements ActionListener, WindowListener {
+    //Most time spent searching a position for a hint, while the player stays on it
+    private static final long HINT_BUDGET_MILLIS = 20000;
+    //How long closing waits for the game to be saved
+    private static final long SAVE_WAIT_MILLIS = 2000;
     private JFrame frame;
     private CardPanel panel;
     private CardGame game;
-    private Object lock = new Object();
+    private final GameLoop loop = new GameLoop();
+    //One for every game, it drops the old game's search when the new one publishes
+    private final HintService hints = new HintService(HINT_BUDGET_MILLIS);
+    //Each game takes it over when it starts
+    private final GameJournal journal = new GameJournal(GameJournal.DIR);
     private String howToPlay = "TODO";
 
     public CardFrame() {
@@ -36,6 +56,11 @@ public class CardFrame implements ActionListener, WindowListener {
                 KeyEvent.VK_R, InputEvent.CTRL_MASK));
         restartMenuItem.addActionListener(this);
 
+        JMenuItem playDealMenuItem = new JMenuItem("Play Deal...");
+        jMenu.add(playDealMenuItem);
+        playDealMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_D, InputEvent.CTRL_MASK));
+        playDealMenuItem.addActionListener(this);
+
         JMenuItem helpMenuItem = new JMenuItem("Help");
         jMenu.add(helpMenuItem);
         helpMenuItem.setAccelerator(KeyStroke.getKeyStroke(
@@ -47,25 +72,34 @@ public class CardFrame implements ActionListener, WindowListener {
         undoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_MASK));
         undoMenuItem.addActionListener(this);
 
+        JMenuItem redoMenuItem = new JMenuItem("Redo");
+        jMenu.add(redoMenuItem);
+        redoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_MASK));
+        redoMenuItem.addActionListener(this);
+
+        JMenuItem hintMenuItem = new JMenuItem("Hint");
+        jMenu.add(hintMenuItem);
+        hintMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_I, InputEvent.CTRL_MASK));
+        hintMenuItem.addActionListener(this);
+
         JMenuItem statMenuItem = new JMenuItem("Stats");
         jMenu.add(statMenuItem);
         statMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S, InputEvent.CTRL_MASK));
         statMenuItem.addActionListener(this);
 
+        JCheckBoxMenuItem instantDealMenuItem = new JCheckBoxMenuItem("Instant Deal", AnimationScheduler.isInstant());
+        jMenu.add(instantDealMenuItem);
+        instantDealMenuItem.addActionListener(this);
+
     }
 
     public static void main(String args[]) throws InvocationTargetException, InterruptedException {
-        new Thread() {
+        SwingUtilities.invokeLater(new Runnable() {
             public void run() {
                 CardFrame frame = new CardFrame();
-                try {
-                    Thread.sleep(200);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
                 frame.restartGame();
             }
-        }.start();
+        });
 //        final CardFrame[] frame = new CardFrame[1];
 //
 //
@@ -105,55 +139,119 @@ public class CardFrame implements ActionListener, WindowListener {
         int bestTime = StorageManager.getBestTime();
         sb.append("Best Time: " + (bestTime == Integer.MAX_VALUE ? "N/A" : bestTime / 1000 + " s") + "\n\n");
         int lowestMoves = StorageManager.getLowestMoves();
-        sb.append("Lowest # Moves: " + (lowestMoves == Integer.MAX_VALUE ? "N/A" : lowestMoves + " moves"));
-        JTextArea textArea = new JTextArea(sb.toString(), 5, 30);
+        sb.append("Lowest # Moves: " + (lowestMoves == Integer.MAX_VALUE ? "N/A" : lowestMoves + " moves") + "\n\n");
+        sb.append("Median Time: " + formatTime(StorageManager.getWinningTime(0.5)) + " ");
+        sb.append("90% Within: " + formatTime(StorageManager.getWinningTime(0.9)) + "\n\n");
+        sb.append("Last " + StorageManager.getRecentGames() + " Games: "
+                + new DecimalFormat("#.##").format(StorageManager.getRecentWinRate() * 100) + " % won\n\n");
+        sb.append("Moves to Win:");
+        int[] bars = StorageManager.getWinningMoves();
+        for (int i = 0; i < bars.length; i++) {
+            if (bars[i] > 0) {
+                int from = i * StorageManager.MOVES_PER_BAR;
+                String range = i == bars.length - 1 ? from + "+" : from + "-" + (from + StorageManager.MOVES_PER_BAR - 1);
+                sb.append("\n" + range + ": " + bars[i]);
+            }
+        }
+        JTextArea textArea = new JTextArea(sb.toString(), 12, 30);
         textArea.setEditable(false);
         panel.add(textArea);
         return panel;
     }
 
+    private static String formatTime(int millis) {
+        return millis < 0 ? "N/A" : millis / 1000 + " s";
+    }
+
+    //Called on the EDT, the game itself is run on the game loop
     public void restartGame() {
-        //Make a new thread to ensure we don't run it on the EDT
+        restartGame(null);
+    }
 
-        new Thread() {
-            public void run() {
-                if (panel != null) {
-                    panel.removeComponentListener(panel);
-                    panel.removeMouseMotionListener(panel);
-                    panel.removeMouseListener(panel);
-                    frame.remove(panel);
+    //As restartGame, dealing dealNumber if it isn't null
+    private void restartGame(Long dealNumber) {
+        //Only a game left from the last run is carried on, not one the player has just left
+        boolean launching = panel == null;
+        if (!launching) {
+            panel.detach();
+            frame.remove(panel);
+            final CardGame oldGame = game;
+            loop.submit(new Runnable() {
+                public void run() {
+                    saveReplay(oldGame);
+                    oldGame.abandon();
+                    //Over with, so a crash before the new game is dealt mustn't bring it back
+                    journal.discard();
                 }
+            });
+        }
 
-                game = new CardGame(CardFrame.this);
-                panel = new CardPanel(game);
-
-                frame.add(panel, BorderLayout.CENTER);
-                frame.pack();
-                frame.setVisible(true);
-                frame.setExtendedState(frame.getExtendedState() | JFrame.MAXIMIZED_BOTH);
-                //  frame.setExtendedState(JFrame.MAXIMIZED_BOTH);
-                startGame();
-            }
+        game = new CardGame(loop);
+        game.setHintService(hints);
+        game.setJournal(journal);
+        panel = new CardPanel(game, this);
 
-        }.start();
+        frame.add(panel, BorderLayout.CENTER);
+        frame.pack();
+        frame.setVisible(true);
+        frame.setExtendedState(frame.getExtendedState() | JFrame.MAXIMIZED_BOTH);
+        //  frame.setExtendedState(JFrame.MAXIMIZED_BOTH);
+        startGame(dealNumber, launching);
     }
 
     @Override
     public void actionPerformed(ActionEvent e) {
         String command = e.getActionCommand();
         if (command.equals("Restart")) {
-            StorageManager.loss();
+            countLoss();
             restartGame();
+        } else if (command.equals("Play Deal...")) {
+            Long dealNumber = askDealNumber();
+            if (dealNumber != null) {
+                countLoss();
+                restartGame(dealNumber);
+            }
         } else if (command.equals("Help")) {
             showHelp();
         } else if (command.equals("Undo")) {
-            synchronized (lock) {
-                panel.undo();
-                panel.repaint();
-            }
+            panel.undo();
+        } else if (command.equals("Redo")) {
+            panel.redo();
+        } else if (command.equals("Hint")) {
+            panel.showHint();
         } else if (command.equals("Stats")) {
             showStats();
+        } else if (command.equals("Instant Deal")) {
+            AnimationScheduler.setInstant(((JCheckBoxMenuItem) e.getSource()).isSelected());
+        }
+    }
+
+    //Counts the game being left as lost
+    private void countLoss() {
+        final CardGame lostGame = game;
+        loop.submit(new Runnable() {
+            public void run() {
+                //A won game was counted when it was won
+                if (!lostGame.hasWon()) {
+                    StorageManager.finished(GameResult.of(lostGame));
+                }
+            }
+        });
+    }
+
+    //The deal number typed in, as the title shows it, or null if none was
+    private Long askDealNumber() {
+        String text = JOptionPane.showInputDialog(frame, "Deal number:", "Play Deal", JOptionPane.PLAIN_MESSAGE);
+        while (text != null) {
+            text = text.trim();
+            //Up to 16 hex digits, all 64 bits
+            if (text.matches("[0-9a-fA-F]{1,16}")) {
+                return new BigInteger(text, 16).longValue();
+            }
+            text = (String) JOptionPane.showInputDialog(frame, text + " isn't a deal number, try again:", "Play Deal",
+                    JOptionPane.WARNING_MESSAGE, null, null, text);
         }
+        return null;
     }
 
     private void showHelp() {
@@ -169,8 +267,81 @@ public class CardFrame implements ActionListener, WindowListener {
         frame.setVisible(true);
     }
 
-    private void startGame() {
-        game.dealGame(panel);
+    //Run on the game loop, so nothing changes the game while it's saved
+    private static void saveReplay(CardGame game) {
+        if (game.getRecording() == null) {
+            return;
+        }
+        try {
+            ReplayWriter.append(ReplayWriter.ARCHIVE, game.getRecording(), game.hasWon());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //Run on the game loop. Returns false if it couldn't be saved.
+    private static boolean saveGame(CardGame game) {
+        try {
+            SavedGame.of(game).write(SavedGame.FILE);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    //Run on the game loop at launch, before the journal is written to. Carries on the game saved when the window
+    //was last closed, or failing that the game the journal has from a crash.
+    private boolean resumeGame(CardGame newGame) {
+        File file = SavedGame.FILE;
+        if (!file.exists()) {
+            SavedGame recovered = journal.recover();
+            if (recovered == null) {
+                return false;
+            }
+            recovered.applyTo(newGame);
+            showDealNumber(recovered.getDealNumber());
+            return true;
+        }
+        try {
+            SavedGame saved = SavedGame.read(file);
+            saved.applyTo(newGame);
+            showDealNumber(saved.getDealNumber());
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            //It's being played again now, or can't be, and is saved again on closing
+            file.delete();
+        }
+    }
+
+    private void showDealNumber(final long dealNumber) {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                //So a deal can be told to someone else
+                frame.setTitle("Kings And Aces - Deal " + Long.toHexString(dealNumber).toUpperCase());
+            }
+        });
+    }
+
+    //Deals dealNumber, or if that's null carries on a saved game (only when launching) or deals a random one
+    private void startGame(final Long dealNumber, final boolean launching) {
+        final CardGame newGame = game;
+        //Wait for graphics to render once before we deal.
+        panel.whenReady(new Runnable() {
+            public void run() {
+                if (dealNumber != null) {
+                    showDealNumber(dealNumber);
+                    newGame.dealGame(dealNumber);
+                } else if (!launching || !resumeGame(newGame)) {
+                    long randomDeal = DealCatalog.randomDealNumber();
+                    showDealNumber(randomDeal);
+                    newGame.dealGame(randomDeal);
+                }
+            }
+        });
     }
 
     @Override
@@ -180,7 +351,40 @@ public class CardFrame implements ActionListener, WindowListener {
 
     @Override
     public void windowClosing(WindowEvent e) {
-        StorageManager.loss();
+        close();
+    }
+
+    /**
+     * Quits from somewhere other than the window's close button, putting the game away the same way first.
+     */
+    public void quit() {
+        close();
+        System.exit(0);
+    }
+
+    //Saves or counts the game, its replay and the journal before the app goes. Called on the EDT.
+    private void close() {
+        hints.shutdown();
+        final CardGame lastGame = game;
+        final CountDownLatch saved = new CountDownLatch(1);
+        loop.submit(new Runnable() {
+            public void run() {
+                //An unfinished game is put away to carry on next time, so it's only over if that fails
+                if (lastGame.hasWon() || !saveGame(lastGame)) {
+                    if (!lastGame.hasWon()) {
+                        StorageManager.finished(GameResult.of(lastGame));
+                    }
+                    saveReplay(lastGame);
+                }
+                //Saved or over, either way the journal isn't needed
+                journal.close(SAVE_WAIT_MILLIS);
+                saved.countDown();
+            }
+        });
+        try {
+            saved.await(SAVE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ignored) {
+        }
     }
 
     @Override
@@ -3,23 +3,30 @@ package com.andrewlensen.kingsAndAces.gui;
 import com.andrewlensen.kingsAndAces.game.*;
 import com.andrewlensen.kingsAndAces.game.moves.CardMove;
 import com.andrewlensen.kingsAndAces.game.moves.CardMoveImpl;
+import com.andrewlensen.kingsAndAces.game.moves.DealMove;
 import com.andrewlensen.kingsAndAces.game.moves.DeckClickMove;
+import com.andrewlensen.kingsAndAces.game.moves.MoveResult;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
 
 /**
  * Created by Andrew on 28/12/13.
  */
-public class CardPanel extends JPanel implements ComponentListener, MouseListener, MouseMotionListener {
+public class CardPanel extends JPanel implements ComponentListener, MouseListener, MouseMotionListener, GameView {
     private static final Color BACKGROUND_GREEN = new Color(0, 150, 0);
-    private static final double CARD_IMAGE_WIDTH = 224.25;
-    private static final double CARD_IMAGE_HEIGHT = 312.8125;
+    private static final Font MESSAGE_FONT = new Font("TimesRoman", Font.PLAIN, 30);
+    //Set -Dkingsandaces.fullRepaint=true to re-render the whole table every paint, for comparison
+    private static final boolean FULL_REPAINT = Boolean.getBoolean("kingsandaces.fullRepaint");
+    //Set -Dkingsandaces.paintStats=true to print the average paint time every PAINT_STATS_FRAMES paints
+    private static final boolean PAINT_STATS = Boolean.getBoolean("kingsandaces.paintStats");
+    private static final int PAINT_STATS_FRAMES = 100;
     protected static double CARD_WIDTH;
     protected static double CARD_HEIGHT;
     private static int NUMBER_CLICKS = 0;
@@ -29,57 +36,301 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
     private static double Y_BOARD_OFFSET;
     private static double X_BOARD_OFFSET;
     private static double DECK_Y;
+    //Only read and written on the EDT
     private static RenderMessage MESSAGE;
     private final CardGame game;
-    private final Object lock = new Object();
+    private final CardFrame cardFrame;
+    //What is being painted, taken from the game at the start of each paint
+    private GameSnapshot state = GameSnapshot.EMPTY;
     //Moving cards
     private CardMove activeMove = null;
 
     private int activeX = -1;
     private int activeY = -1;
+    //Where the dragged card is currently drawn on screen, it is never drawn into the back buffer
+    private int overlayX = -1;
+    private int overlayY = -1;
+    //Drags are only drawn once per display refresh however many events the mouse sends
+    private final Timer dragTimer;
+    private final AnimationScheduler animator;
     private boolean successfulPaint = false;
-    private BufferedImage lastImage;
-
-    public CardPanel(CardGame game) {
+    //Submitted to the game loop after the first paint
+    private Runnable readyCommand;
+    //Clears MESSAGE after it has been shown for a while
+    private final Timer messageTimer;
+    //Retained between paints, only reallocated when the panel changes size
+    private BufferedImage backBuffer;
+    //Areas of the back buffer that are out of date. Guarded by itself as repaint() can come from any thread.
+    private final List<Rectangle> dirtyRegions = new ArrayList<Rectangle>();
+    private final List<Rectangle> renderRegions = new ArrayList<Rectangle>();
+    private long paintNanos = 0;
+    private int paintCount = 0;
+
+    public CardPanel(CardGame game, CardFrame cardFrame) {
         this.game = game;
+        this.cardFrame = cardFrame;
         this.setPreferredSize(new Dimension(1000, 1000));
         this.addMouseListener(this);
         this.addMouseMotionListener(this);
         this.addComponentListener(this);
+        dragTimer = new Timer(1000 / displayRefreshRate(), new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                updateDragOverlay();
+            }
+        });
+        animator = new AnimationScheduler(this);
+        messageTimer = new Timer(2000, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                MESSAGE = null;
+                repaint(messageBounds());
+            }
+        });
+        messageTimer.setRepeats(false);
+        //Enter confirms the next deal round, like clicking the pack
+        getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "confirmDeal");
+        getActionMap().put("confirmDeal", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                CardPanel.this.game.confirmDeal();
+            }
+        });
+        game.setView(this);
         //Set up initial constants
         componentResized(null);
     }
 
     public void paint(Graphics gOriginal) {
-        //Double buffering and caching for dragging
-        lastImage = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = lastImage.createGraphics();
+        long start = System.nanoTime();
+        state = game.getSnapshot();
+        if (backBuffer == null || backBuffer.getWidth() != getWidth() || backBuffer.getHeight() != getHeight()) {
+            allocateBackBuffer();
+        }
+        synchronized (dirtyRegions) {
+            if (FULL_REPAINT) {
+                dirtyRegions.clear();
+                dirtyRegions.add(new Rectangle(0, 0, getWidth(), getHeight()));
+            }
+            renderRegions.addAll(dirtyRegions);
+            dirtyRegions.clear();
+        }
+        for (Rectangle region : renderRegions) {
+            renderTable(region);
+        }
+        renderRegions.clear();
+        if (!successfulPaint) {
+            successfulPaint = true;
+            if (readyCommand != null) {
+                game.getLoop().submit(readyCommand);
+            }
+        }
+        //Anything else in the clip is already up to date in the buffer
+        gOriginal.drawImage(backBuffer, 0, 0, null);
+        Graphics2D overlay = (Graphics2D) gOriginal.create();
+        animator.paintFlights(overlay);
+        if (overlayX != -1 && overlayY != -1) {
+            renderDragCards(overlay, overlayX, overlayY);
+        }
+        overlay.dispose();
+        recordPaintTime(System.nanoTime() - start);
+    }
+
+    private void allocateBackBuffer() {
+        int width = Math.max(getWidth(), 1);
+        int height = Math.max(getHeight(), 1);
+        GraphicsConfiguration config = getGraphicsConfiguration();
+        if (config != null) {
+            backBuffer = config.createCompatibleImage(width, height, Transparency.OPAQUE);
+        } else {
+            backBuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        synchronized (dirtyRegions) {
+            dirtyRegions.clear();
+            dirtyRegions.add(new Rectangle(0, 0, width, height));
+        }
+    }
+
+    private void renderTable(Rectangle region) {
+        Graphics2D g = backBuffer.createGraphics();
+        g.clip(region);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g.setColor(BACKGROUND_GREEN);
-        g.fillRect(0, 0, this.getWidth(), this.getHeight());
+        g.fill(region);
 
         renderHandIfAny(g);
-        final List<List<Card>> gameBoard = game.getBoard();
+        final List<List<Card>> gameBoard = state.getBoard();
         renderBoard(g, gameBoard);
-        //Lets render this in the dragged event instead to lower load
-        //renderDragCards(g, gameBoard);
         renderDeck(g);
         renderAcePile(g);
         renderKingPile(g);
         renderError(g);
-        successfulPaint = true;
-        gOriginal.drawImage(lastImage, 0, 0, null);
         g.dispose();
     }
 
+    private void recordPaintTime(long nanos) {
+        if (PAINT_STATS) {
+            paintNanos += nanos;
+            paintCount++;
+            if (paintCount == PAINT_STATS_FRAMES) {
+                System.out.println("Average paint: " + (paintNanos / paintCount / 1000) + " us over " + paintCount + " paints");
+                paintNanos = 0;
+                paintCount = 0;
+            }
+        }
+    }
+
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        //Anyone asking for a repaint has changed what should be there. Can be called by the super constructor.
+        if (dirtyRegions != null) {
+            synchronized (dirtyRegions) {
+                dirtyRegions.add(new Rectangle(x, y, width, height));
+            }
+        }
+        super.repaint(tm, x, y, width, height);
+    }
+
+    /**
+     * Repaints only the piles the move touched.
+     */
+    private void repaintMove(CardMove move) {
+        if (!(move instanceof CardMoveImpl) || ((CardMoveImpl) move).getMoveTypeTo() == null) {
+            return;
+        }
+        CardMoveImpl cardMove = (CardMoveImpl) move;
+        int indexFrom = cardMove.getIndexFrom();
+        switch (cardMove.getMoveTypeFrom()) {
+            case FROM_ACE_PILES:
+                repaint(acePileBounds(indexFrom));
+                break;
+            case FROM_KING_PILES:
+                repaint(kingPileBounds(indexFrom));
+                break;
+            case FROM_BOARD:
+                repaint(boardPileBounds(indexFrom));
+                break;
+            case FROM_HAND:
+                repaint(handBounds());
+                break;
+        }
+        int indexTo = cardMove.getIndexTo();
+        switch (cardMove.getMoveTypeTo()) {
+            case TO_ACE_PILES:
+                repaint(acePileBounds(indexTo));
+                break;
+            case TO_KING_PILES:
+                repaint(kingPileBounds(indexTo));
+                break;
+            case TO_HAND:
+                repaint(handBounds());
+                break;
+            case TO_DECK:
+                repaint(deckBounds());
+                break;
+        }
+    }
+
+    private Rectangle kingPileBounds(int index) {
+        return cardBounds(kingPileLocation(index));
+    }
+
+    private Rectangle acePileBounds(int index) {
+        return cardBounds(acePileLocation(index));
+    }
+
+    private Rectangle boardPileBounds(int index) {
+        return cardBounds(boardPileLocation(index));
+    }
+
+    private Rectangle deckBounds() {
+        return cardBounds(deckLocation());
+    }
+
+    private Point2D.Double kingPileLocation(int index) {
+        return new Point2D.Double(X_BOARD_OFFSET + CARD_WIDTH + CARD_X_GAP, Y_BOARD_OFFSET + index * (CARD_HEIGHT + CARD_Y_GAP));
+    }
+
+    private Point2D.Double acePileLocation(int index) {
+        return new Point2D.Double(X_BOARD_OFFSET + CARD_WIDTH * 6 + CARD_X_GAP * 6, Y_BOARD_OFFSET + index * (CARD_HEIGHT + CARD_Y_GAP));
+    }
+
+    private Point2D.Double boardPileLocation(int index) {
+        double x = X_BOARD_OFFSET + CARD_WIDTH * 2 + CARD_X_GAP * 2 + (index % 4) * (CARD_WIDTH + CARD_X_GAP);
+        double y = Y_BOARD_OFFSET + CARD_HEIGHT / 2 + (index / 4) * (CARD_HEIGHT + CARD_Y_GAP);
+        return new Point2D.Double(x, y);
+    }
+
+    Point2D.Double deckLocation() {
+        return new Point2D.Double(X_BOARD_OFFSET, DECK_Y);
+    }
+
+    /**
+     * Where the pile holding the card is drawn, or null if it isn't in a pile any more.
+     */
+    Point2D.Double pileLocationOf(Card card) {
+        GameSnapshot current = game.getSnapshot();
+        List<List<Card>> kingPiles = current.getKingPiles();
+        for (int i = 0; i < kingPiles.size(); i++) {
+            if (kingPiles.get(i).contains(card)) {
+                return kingPileLocation(i);
+            }
+        }
+        List<List<Card>> acePiles = current.getAcePiles();
+        for (int i = 0; i < acePiles.size(); i++) {
+            if (acePiles.get(i).contains(card)) {
+                return acePileLocation(i);
+            }
+        }
+        List<List<Card>> board = current.getBoard();
+        for (int i = 0; i < board.size(); i++) {
+            if (board.get(i).contains(card)) {
+                return boardPileLocation(i);
+            }
+        }
+        return null;
+    }
+
+    void repaintPileOf(Card card) {
+        Point2D.Double location = pileLocationOf(card);
+        if (location != null) {
+            repaint(cardBounds(location));
+        }
+    }
+
+    private Rectangle handBounds() {
+        Rectangle bounds = cardBounds(handXStart(), handYStart());
+        bounds.add(new Rectangle(bounds.x, bounds.y, (int) Math.ceil(handXEnd() - handXStart()) + 2, bounds.height));
+        return bounds;
+    }
+
+    private Rectangle messageBounds() {
+        FontMetrics fontMetrics = getFontMetrics(MESSAGE_FONT);
+        int y = (int) (DECK_Y + CARD_HEIGHT / 2);
+        return new Rectangle(0, y - fontMetrics.getAscent(), getWidth(), fontMetrics.getHeight());
+    }
+
+    private Rectangle cardBounds(Point2D.Double location) {
+        return cardBounds(location.x, location.y);
+    }
+
+    //The card plus the label drawn above it
+    Rectangle cardBounds(double x, double y) {
+        int labelHeight = Math.max((int) Math.ceil(CARD_Y_GAP), getFontMetrics(getFont()).getHeight());
+        return new Rectangle((int) Math.floor(x) - 1, (int) Math.floor(y) - labelHeight,
+                (int) Math.ceil(CARD_WIDTH) + 3, (int) Math.ceil(CARD_HEIGHT) + labelHeight + 2);
+    }
+
     private void renderKingPile(Graphics2D g) {
         double x = X_BOARD_OFFSET + CARD_WIDTH + CARD_X_GAP;
         double y = Y_BOARD_OFFSET;
         g.setColor(Color.white);
         g.drawString("King Down", (int) x, (int) y - 1);
 
-        for (List<Card> kingPile : game.getKingPiles()) {
-            if (kingPile.size() > 0) {
-                renderCard(kingPile.get(kingPile.size() - 1), g, x, y);
+        for (List<Card> kingPile : state.getKingPiles()) {
+            int size = landedSize(kingPile);
+            if (size > 0) {
+                renderCard(kingPile.get(size - 1), g, x, y);
             }
             y += CARD_HEIGHT + CARD_Y_GAP;
         }
@@ -90,9 +341,10 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
         double y = Y_BOARD_OFFSET;
         g.setColor(Color.white);
         g.drawString("Ace Up", (int) x, (int) y - 1);
-        for (List<Card> acePile : game.getAcePiles()) {
-            if (acePile.size() > 0) {
-                renderCard(acePile.get(acePile.size() - 1), g, x, y);
+        for (List<Card> acePile : state.getAcePiles()) {
+            int size = landedSize(acePile);
+            if (size > 0) {
+                renderCard(acePile.get(size - 1), g, x, y);
             }
             y += CARD_HEIGHT + CARD_Y_GAP;
 
@@ -102,7 +354,7 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
 
     private void renderError(Graphics2D g) {
         if (MESSAGE != null) {
-            g.setFont(new Font("TimesRoman", Font.PLAIN, 30));
+            g.setFont(MESSAGE_FONT);
             FontMetrics fontMetrics = g.getFontMetrics();
             float xLeft = (float) (CARD_WIDTH + CARD_X_GAP);
 
@@ -115,8 +367,8 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
     }
 
     private void renderDeck(Graphics2D g) {
-        Stack<Card> deck = game.getDeck();
-        Card topCard = deck.size() == 0 ? null : deck.peek();
+        List<Card> deck = state.getDeck();
+        Card topCard = deck.size() == 0 ? null : deck.get(deck.size() - 1);
 
         double x = X_BOARD_OFFSET;
         double y = DECK_Y;
@@ -134,27 +386,27 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
         }
     }
 
-    private void renderDragCards(Graphics2D g, List<List<Card>> gameBoard) {
-        if (activeMove != null && activeMove instanceof CardMoveImpl && activeX != -1 && activeY != -1) {
+    private void renderDragCards(Graphics2D g, int dragX, int dragY) {
+        if (activeMove != null && activeMove instanceof CardMoveImpl) {
             CardMoveImpl move = (CardMoveImpl) activeMove;
             if (move.getMoveTypeFrom() == CardMoveImpl.MOVE_TYPE_FROM.FROM_HAND) {
-                List<Card> from = game.getHand().getList();
-                renderCard(from.get(move.getIndexFrom()), g, activeX - (CARD_WIDTH / 2), activeY);
+                List<Card> from = state.getHand().getList();
+                renderCard(from.get(move.getIndexFrom()), g, dragX - (CARD_WIDTH / 2), dragY);
             } else {
                 List<Card> from = null;
                 switch (move.getMoveTypeFrom()) {
                     case FROM_ACE_PILES:
-                        from = game.getAcePiles().get(move.getIndexFrom());
+                        from = state.getAcePiles().get(move.getIndexFrom());
                         break;
                     case FROM_KING_PILES:
-                        from = game.getKingPiles().get(move.getIndexFrom());
+                        from = state.getKingPiles().get(move.getIndexFrom());
                         break;
                     case FROM_BOARD:
-                        from = game.getBoard().get(move.getIndexFrom());
+                        from = state.getBoard().get(move.getIndexFrom());
                         break;
                 }
                 assert from != null;
-                renderCard(from.get(from.size() - 1), g, activeX - (CARD_WIDTH / 2), activeY);
+                renderCard(from.get(from.size() - 1), g, dragX - (CARD_WIDTH / 2), dragY);
 
             }
         }
@@ -181,19 +433,28 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
                 }
             }
 
-            if (cards.size() > 0) {
+            int size = landedSize(cards);
+            if (size > 0) {
                 g.setColor(Color.white);
-                int size = cards.size();
                 g.drawString(size + (size == 1 ? " card" : " cards"), (int) x, (int) y - 1);
-                renderCard(cards.get(cards.size() - 1), g, x, y);
+                renderCard(cards.get(size - 1), g, x, y);
             }
 
         }
     }
 
 
+    //Cards still being dealt onto the pile aren't shown in it yet
+    private int landedSize(List<Card> pile) {
+        int size = pile.size();
+        while (size > 0 && animator.isInFlight(pile.get(size - 1))) {
+            size--;
+        }
+        return size;
+    }
+
     private void renderHandIfAny(Graphics2D g) {
-        Hand hand = game.getHand();
+        Hand hand = state.getHand();
         if (hand != null && hand.getIndex() != -1 && hand.getList().size() > 0) {
 
             final double handXGap = handXGap(hand.getList().size());
@@ -230,29 +491,18 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
     }
 
     private void renderUpsideDownCard(Graphics2D g, double x, double y, boolean blue) {
-        AffineTransform oldTransform = getAffineTransform(g, x, y);
-        ImageManager.renderBlank(g, blue);
-        g.setTransform(oldTransform);
+        if (!g.hitClip((int) x, (int) y, (int) Math.ceil(CARD_WIDTH) + 1, (int) Math.ceil(CARD_HEIGHT) + 1)) {
+            return;
+        }
+        ImageManager.drawBack(g, x, y, blue);
     }
 
     private void renderCard(Card card, Graphics2D g, double x, double y) {
-        AffineTransform oldTransform = getAffineTransform(g, x, y);
-        ImageManager.renderSVG(card, g);
-        //Revert changes.
-        g.setTransform(oldTransform);
-    }
-
-    private AffineTransform getAffineTransform(Graphics2D g, double x, double y) {
-        //Make necessary adjustments so SVG is drawn correctly
-        AffineTransform oldTransform = g.getTransform();
-
-        double xScale = CARD_WIDTH / CARD_IMAGE_WIDTH;
-        double yScale = CARD_HEIGHT / CARD_IMAGE_HEIGHT;
-        g.translate(x, y);
-        g.scale(xScale, yScale);
-
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        return oldTransform;
+        if (!g.hitClip((int) x, (int) y, (int) Math.ceil(CARD_WIDTH) + 1, (int) Math.ceil(CARD_HEIGHT) + 1)) {
+            //Not in the area being repainted
+            return;
+        }
+        ImageManager.drawCard(card, g, x, y);
     }
 
     @Override
@@ -264,10 +514,12 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
 
         X_BOARD_OFFSET = (getWidth() - (CARD_WIDTH * 7) - (CARD_X_GAP * 6)) / 2;
 
-        CARD_HEIGHT = CARD_WIDTH / (CARD_IMAGE_WIDTH / CARD_IMAGE_HEIGHT);
+        CARD_HEIGHT = CARD_WIDTH / (ImageManager.CARD_IMAGE_WIDTH / ImageManager.CARD_IMAGE_HEIGHT);
         CARD_Y_GAP = CARD_HEIGHT / 4;
         Y_BOARD_OFFSET = CARD_Y_GAP;
         DECK_Y = getHeight() - CARD_Y_GAP - CARD_HEIGHT;
+        //Re-rasterise the cards now rather than on the next paint
+        ImageManager.setCardSize(CARD_WIDTH, CARD_HEIGHT);
     }
 
     @Override
@@ -292,41 +544,35 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
 
     @Override
     public void mousePressed(MouseEvent e) {
-
-        try {
-            if (e.getX() < X_BOARD_OFFSET || e.getX() > (getWidth() - X_BOARD_OFFSET) || e.getY() < Y_BOARD_OFFSET) {
-                //Clicked off the board, nothing to do with us.
-                return;
-            }
-            if ((System.currentTimeMillis() - LAST_PRESS) < 400) {
-                NUMBER_CLICKS++;
-            } else {
-                NUMBER_CLICKS = 0;
-            }
-            LAST_PRESS = System.currentTimeMillis();
-            if (clickedOnDeck(e)) {
-                if (game.hasDealt()) {
-                    processDeckClick();
-                } else {
-                    //Can click on the deck to deal the next lot
-                    game.getDealLatch().countDown();
-                }
-            } else if (clickedOnHand(e)) {
-                if (game.hasDealt()) processMoveFromHand(e);
-            } else if (clickedOnKingPile(e)) {
-                if (game.hasDealt()) processMoveFromKingPile(e);
-            } else if (clickedOnAcePile(e)) {
-                if (game.hasDealt()) processMoveFromAcePile(e);
+        if (e.getX() < X_BOARD_OFFSET || e.getX() > (getWidth() - X_BOARD_OFFSET) || e.getY() < Y_BOARD_OFFSET) {
+            //Clicked off the board, nothing to do with us.
+            return;
+        }
+        if ((System.currentTimeMillis() - LAST_PRESS) < 400) {
+            NUMBER_CLICKS++;
+        } else {
+            NUMBER_CLICKS = 0;
+        }
+        LAST_PRESS = System.currentTimeMillis();
+        if (clickedOnDeck(e)) {
+            if (game.getSnapshot().hasDealt()) {
+                processDeckClick();
             } else {
-                processMoveFromBoard(e);
+                //Can click on the deck to deal the next lot
+                game.confirmDeal();
             }
-
-            System.out.println(activeMove);
-            activeX = e.getX();
-            activeY = e.getY();
-        } finally {
-            this.repaint();
+        } else if (clickedOnHand(e)) {
+            if (game.getSnapshot().hasDealt()) processMoveFromHand(e);
+        } else if (clickedOnKingPile(e)) {
+            if (game.getSnapshot().hasDealt()) processMoveFromKingPile(e);
+        } else if (clickedOnAcePile(e)) {
+            if (game.getSnapshot().hasDealt()) processMoveFromAcePile(e);
+        } else {
+            processMoveFromBoard(e);
         }
+
+        activeX = e.getX();
+        activeY = e.getY();
     }
 
     private void processMoveFromAcePile(MouseEvent e) {
@@ -355,7 +601,7 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
     }
 
     private void processMoveFromHand(MouseEvent e) {
-        List<Card> hand = game.getHand().getList();
+        List<Card> hand = game.getSnapshot().getHand().getList();
         if (hand.size() > 0) {
 
             final double handXGap = handXGap(hand.size());
@@ -372,69 +618,90 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
 
     @Override
     public void mouseReleased(MouseEvent e) {
-        //Don't want multiple threads in here really
-        synchronized (lock) {
-            try {
-                if (e.getX() < X_BOARD_OFFSET || e.getX() > (getWidth() - X_BOARD_OFFSET)) {
-                    //Clicked off the board, nothing to do with us.
-                    activeMove = null;
-                    return;
-                }
-
-                if (clickedOnDeck(e)) {
-                    System.out.println(game.canAddToDeckFromBoard());
-                    if (game.canAddToDeckFromBoard()) {
-                        processAddToDeck(e);
-                    }
-                    //Otherwise do nothing
-                } else if (game.hasDealt()) {
-                    if (clickedOnHand(e)) {
-                        processMoveToHand(e);
-                    } else if (clickedOnKingPile(e)) {
-                        processMoveToKingPile(e);
-                    } else if (clickedOnAcePile(e)) {
-                        processMoveToAcePile(e);
-                    } else {
-                        //Do nothing - can't move to board.
-                    }
-                }
+        try {
+            if (e.getX() < X_BOARD_OFFSET || e.getX() > (getWidth() - X_BOARD_OFFSET)) {
+                //Clicked off the board, nothing to do with us.
                 activeMove = null;
-            } finally {
-                this.repaint();
+                return;
             }
-            if (game.hasWon()) {
-                int elapsedTime = (int) (System.currentTimeMillis() - game.getStartTime());
-                StorageManager.win(elapsedTime, game.getNumMoves());
-                String[] options = new String[]{"Play Again", "Quit"};
-                int result = JOptionPane.showOptionDialog(CardFrame.showStats(), "Congratulations! You have won.\n Time: " + (elapsedTime / 1000) + " s\nMoves: " + game.getNumMoves(), "Win!", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
-                if (result == JOptionPane.YES_OPTION) {
-                    game.restart();
 
+            if (clickedOnDeck(e)) {
+                if (game.getSnapshot().canAddToDeckFromBoard()) {
+                    processAddToDeck(e);
+                }
+                //Otherwise do nothing
+            } else if (game.getSnapshot().hasDealt()) {
+                if (clickedOnHand(e)) {
+                    processMoveToHand(e);
+                } else if (clickedOnKingPile(e)) {
+                    processMoveToKingPile(e);
+                } else if (clickedOnAcePile(e)) {
+                    processMoveToAcePile(e);
                 } else {
-                    System.exit(0);
+                    //Do nothing - can't move to board.
                 }
             }
+            activeMove = null;
+        } finally {
+            clearDragOverlay();
+        }
+    }
+
+    /**
+     * Makes the move on the game loop, then repaints what it changed.
+     */
+    private void submitMove(final CardMove move) {
+        game.getLoop().submit(new Runnable() {
+            @Override
+            public void run() {
+                processMoveResult(move.makeMove(game), move);
+                game.publish();
+                repaintMove(move);
+                checkForWin();
+            }
+        });
+    }
+
+    //Run on the game loop
+    private void checkForWin() {
+        if (game.hasWon()) {
+            GameResult result = GameResult.of(game);
+            final int elapsedTime = result.getElapsedMillis();
+            final int numMoves = result.getMoves();
+            StorageManager.finished(result);
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    String[] options = new String[]{"Play Again", "Quit"};
+                    int result = JOptionPane.showOptionDialog(CardFrame.showStats(), "Congratulations! You have won.\n Time: " + (elapsedTime / 1000) + " s\nMoves: " + numMoves, "Win!", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+                    if (result == JOptionPane.YES_OPTION) {
+                        cardFrame.restartGame();
+
+                    } else {
+                        cardFrame.quit();
+                    }
+                }
+            });
         }
     }
 
     private void processAddToDeck(MouseEvent e) {
-        if (!game.hasDealt()) {
+        //Nothing was picked up if the press was on the deck itself
+        if (activeMove != null && !game.getSnapshot().hasDealt()) {
             activeMove.cardReleased(0, CardMoveImpl.MOVE_TYPE_TO.TO_DECK);
-            processMoveResult(activeMove.makeMove(game, this), activeMove);
-            System.out.println("Add to Deck" + activeMove);
+            submitMove(activeMove);
         }
     }
 
     private void processMoveToHand(MouseEvent e) {
-        List<Card> hand = game.getHand().getList();
+        List<Card> hand = game.getSnapshot().getHand().getList();
         if (hand.size() > 0) {
 
             final double handXGap = handXGap(hand.size());
 
             int indexTo = (int) ((e.getX() - handXStart()) / (handXGap + CARD_WIDTH));
             activeMove.cardReleased(indexTo, CardMoveImpl.MOVE_TYPE_TO.TO_HAND);
-            String result = activeMove.makeMove(game, this);
-            processMoveResult(result, activeMove);
+            submitMove(activeMove);
 
         }
     }
@@ -443,8 +710,7 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
         int index = (int) (e.getY() / (CARD_Y_GAP + CARD_HEIGHT));
         if (index < 4) {
             activeMove.cardReleased(index, CardMoveImpl.MOVE_TYPE_TO.TO_ACE_PILES);
-            String result = activeMove.makeMove(game, this);
-            processMoveResult(result, activeMove);
+            submitMove(activeMove);
         }
     }
 
@@ -452,34 +718,47 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
         int index = (int) (e.getY() / (CARD_Y_GAP + CARD_HEIGHT));
         if (index < 4) {
             activeMove.cardReleased(index, CardMoveImpl.MOVE_TYPE_TO.TO_KING_PILES);
-            String result = activeMove.makeMove(game, this);
-            processMoveResult(result, activeMove);
+            submitMove(activeMove);
         }
     }
 
 
     private void processDeckClick() {
         //Can assume did click on the deck.
-        final Stack<Card> deck = game.getDeck();
-        if (!deck.isEmpty()) {
-            activeMove = new DeckClickMove();
-            String result = activeMove.makeMove(game, this);
-            processMoveResult(result, activeMove);
-        }
+        final DeckClickMove move = new DeckClickMove();
+        activeMove = move;
+        game.getLoop().submit(new Runnable() {
+            @Override
+            public void run() {
+                final Stack<Card> deck = game.getDeck();
+                if (!deck.isEmpty()) {
+                    //Old hand goes back to the board, the pile matching the card becomes the hand
+                    Hand oldHand = game.getHand();
+                    int oldHandIndex = oldHand == null ? -1 : oldHand.getIndex();
+                    int newHandIndex = deck.peek().getRank().ordinal();
+                    processMoveResult(move.makeMove(game), move);
+                    game.publish();
+                    if (oldHandIndex != -1) {
+                        repaint(boardPileBounds(oldHandIndex));
+                    }
+                    repaint(boardPileBounds(newHandIndex));
+                    repaint(deckBounds());
+                    repaint(handBounds());
+                }
+            }
+        });
 
     }
 
     private int findCol(int xPressed) {
         xPressed -= X_BOARD_OFFSET + CARD_WIDTH * 2 + CARD_X_GAP * 2;
         int col = (int) (xPressed / (CARD_WIDTH + CARD_X_GAP));
-        System.out.println("Col: " + col);
         return col;
     }
 
     private int findRow(int yPressed) {
         yPressed -= Y_BOARD_OFFSET + CARD_HEIGHT / 2;
         int row = (int) (yPressed / (CARD_HEIGHT + CARD_Y_GAP));
-        System.out.println("Row: " + row);
         return row;
     }
 
@@ -501,30 +780,47 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
         }
     }
 
-    private void processMoveResult(String result, CardMove move) {
-        if (result.isEmpty()) {
-            game.getHistory().push(move);
-        } else if (!result.equals("ONTO_SELF")) {
-            storeMessage(new RenderMessage(result, true));
+    //Run on the game loop, straight after the move so the cards it was about are still where they were
+    private void processMoveResult(MoveResult result, CardMove move) {
+        if (result.isOk()) {
+            game.record(move.encode());
+            if (DeadEnds.isDead(game)) {
+                storeMessage(new RenderMessage("This game can't be won any more", true));
+            }
+        } else if (move instanceof CardMoveImpl) {
+            CardMoveImpl cardMove = (CardMoveImpl) move;
+            storeMessage(new RenderMessage(result.getMessage(cardMove.getCard(game), cardMove.getTarget(game)), true));
+        } else {
+            storeMessage(new RenderMessage(result.getMessage(null, null), true));
         }
     }
 
+    @Override
+    public void cardDealt(Card card) {
+        animator.animateDeal(card);
+    }
+
+    @Override
+    public void showMessage(String text, boolean isError) {
+        storeMessage(new RenderMessage(text, isError));
+    }
+
+    @Override
+    public void refresh() {
+        repaint();
+    }
+
     public void storeMessage(final RenderMessage message) {
-        //Render and disappear it
-        new Thread() {
+        //Called from the game loop, but MESSAGE is only touched on the EDT where it's rendered
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
             public void run() {
+                //Render and disappear it
                 MESSAGE = message;
-                try {
-                    Thread.sleep(2000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-                if (message.equals(MESSAGE)) {
-                    MESSAGE = null;
-                    CardPanel.this.repaint();
-                }
+                repaint(messageBounds());
+                messageTimer.restart();
             }
-        }.start();
+        });
     }
 
     @Override
@@ -542,29 +838,161 @@ public class CardPanel extends JPanel implements ComponentListener, MouseListene
         if (activeMove != null) {
             activeX = e.getX();
             activeY = e.getY();
+            //Picked up on the next frame
+            if (!dragTimer.isRunning()) {
+                dragTimer.start();
+            }
         } else {
             activeX = -1;
             activeY = -1;
         }
-        BufferedImage copyImage = new BufferedImage(lastImage.getWidth(), lastImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = copyImage.createGraphics();
-        g.drawImage(lastImage, 0, 0, null);
-        renderDragCards(g, game.getBoard());
-        Graphics panelGraphics = getGraphics();
-        panelGraphics.drawImage(copyImage, 0, 0, null);
-        panelGraphics.dispose();
-        g.dispose();
+    }
+
+    private void updateDragOverlay() {
+        if (activeX == overlayX && activeY == overlayY) {
+            return;
+        }
+        //Uncover where the card was, then show it where it is now
+        if (overlayX != -1 && overlayY != -1) {
+            repaintOverlay(dragBounds(overlayX, overlayY));
+        }
+        overlayX = activeX;
+        overlayY = activeY;
+        if (overlayX != -1 && overlayY != -1) {
+            repaintOverlay(dragBounds(overlayX, overlayY));
+        }
+    }
+
+    private void clearDragOverlay() {
+        dragTimer.stop();
+        if (overlayX != -1 && overlayY != -1) {
+            repaintOverlay(dragBounds(overlayX, overlayY));
+        }
+        overlayX = -1;
+        overlayY = -1;
+    }
+
+    private Rectangle dragBounds(int dragX, int dragY) {
+        return cardBounds(dragX - (CARD_WIDTH / 2), dragY);
+    }
+
+    //Unlike repaint() this doesn't mark the area dirty, it only gets copied from the back buffer again
+    void repaintOverlay(Rectangle bounds) {
+        RepaintManager.currentManager(this).addDirtyRegion(this, bounds.x, bounds.y, bounds.width, bounds.height);
+    }
+
+    static int displayRefreshRate() {
+        if (!GraphicsEnvironment.isHeadless()) {
+            int refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+            if (refreshRate != DisplayMode.REFRESH_RATE_UNKNOWN) {
+                return refreshRate;
+            }
+        }
+        return 60;
     }
 
     @Override
     public void mouseMoved(MouseEvent e) {
     }
 
+    /**
+     * Stops listening for input, once a new game has replaced this one.
+     */
+    public void detach() {
+        removeComponentListener(this);
+        removeMouseMotionListener(this);
+        removeMouseListener(this);
+    }
+
+    public AnimationScheduler getAnimator() {
+        return animator;
+    }
+
     public boolean isReady() {
         return successfulPaint;
     }
 
+    /**
+     * Submits the command to the game loop once the panel has painted for the first time.
+     */
+    public void whenReady(Runnable command) {
+        if (successfulPaint) {
+            game.getLoop().submit(command);
+        } else {
+            readyCommand = command;
+        }
+    }
+
     public void undo() {
-        game.undo(this);
+        game.getLoop().submit(new Runnable() {
+            @Override
+            public void run() {
+                game.undo();
+                game.publish();
+                repaint();
+            }
+        });
+    }
+
+    public void redo() {
+        game.getLoop().submit(new Runnable() {
+            @Override
+            public void run() {
+                if (game.redo()) {
+                    game.publish();
+                    repaint();
+                    checkForWin();
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the hint service's best move for where the game is now. The searching has already been done in the
+     * background, this just reads it.
+     */
+    public void showHint() {
+        game.getLoop().submit(new Runnable() {
+            @Override
+            public void run() {
+                HintService hints = game.getHintService();
+                if (hints == null || !game.hasDealt() || game.hasWon()) {
+                    return;
+                }
+                storeMessage(new RenderMessage(describeHint(hints.getHint(game.getHash())), false));
+            }
+        });
+    }
+
+    //Run on the game loop, the hint is for the position the game is in
+    private String describeHint(HintService.Hint hint) {
+        if (hint == null) {
+            return "Still thinking, try again in a moment";
+        }
+        CardMove move = hint.getMove();
+        String text;
+        if (move instanceof CardMoveImpl) {
+            CardMoveImpl cardMove = (CardMoveImpl) move;
+            Card card = cardMove.getCard(game);
+            if (cardMove.getMoveTypeTo() == CardMove.MOVE_TYPE_TO.TO_HAND) {
+                text = "Move " + card + " to place " + (cardMove.getIndexTo() + 1) + " in the hand";
+            } else if (cardMove.getMoveTypeTo() == CardMove.MOVE_TYPE_TO.TO_DECK) {
+                text = "Put " + card + " on the deck";
+            } else {
+                text = "Put " + card + " on " + cardMove.getTarget(game);
+            }
+        } else if (move instanceof DeckClickMove) {
+            text = "Turn over the deck";
+        } else if (move instanceof DealMove) {
+            text = "Deal";
+        } else {
+            text = "No moves left";
+        }
+        if (hint.getStatus() == Solver.Status.WON) {
+            return text + " (this can still be won)";
+        } else if (hint.getStatus() == Solver.Status.LOST) {
+            return text + " (this can't be won any more)";
+        }
+        return text;
     }
 }
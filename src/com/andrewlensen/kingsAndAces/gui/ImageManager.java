@@ -6,6 +6,7 @@ import com.kitfox.svg.SVGUniverse;
 import com.andrewlensen.kingsAndAces.game.Card;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.net.URISyntaxException;
 import java.net.URL;
 
@@ -13,6 +14,18 @@ import java.net.URL;
  * Created by Andrew on 28/12/13.
  */
 public class ImageManager {
+    //Size the SVGs are drawn at
+    static final double CARD_IMAGE_WIDTH = 224.25;
+    static final double CARD_IMAGE_HEIGHT = 312.8125;
+
+    //Sprite slots: the 52 faces (suit * 13 + rank) then the backs
+    private static final int BLANK_SPRITE = 52;
+    private static final int BLUE_SPRITE = 53;
+    private static final int RED_SPRITE = 54;
+    private static final int NUM_SPRITES = 55;
+    //Set -Dkingsandaces.paintStats=true to print how long each sprite rebuild takes, as CardPanel does for paints
+    private static final boolean PAINT_STATS = Boolean.getBoolean("kingsandaces.paintStats");
+
     private static final URL[] spadeURLs = new URL[13];
     private static final URL[] clubURLs = new URL[13];
     private static final URL[] diamondURLs = new URL[13];
@@ -20,6 +33,14 @@ public class ImageManager {
     private static final String urlBase = "/com/andrewlensen/kingsAndAces/images/";
     private static final SVGUniverse universe = new SVGUniverse();
 
+    //Rasterised cards for the current card size. Swapped wholesale on a resize so paint never sees a half built set.
+    private static volatile BufferedImage[] sprites = new BufferedImage[NUM_SPRITES];
+    private static int spriteWidth = 0;
+    private static int spriteHeight = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long lastRebuildNanos = 0;
+
     static {
         loadRankURIs(spadeURLs, urlBase + "spades/");
         loadRankURIs(clubURLs, urlBase + "clubs/");
@@ -31,16 +52,65 @@ public class ImageManager {
         loadSVGs(heartURLs);
     }
 
-    public static void renderSVG(Card card, Graphics2D g) {
+    /**
+     * Rasterises every card face and back at the given size, if it isn't the size we already have.
+     */
+    public static synchronized void setCardSize(double width, double height) {
+        int newWidth = (int) Math.round(width);
+        int newHeight = (int) Math.round(height);
+        if (newWidth <= 0 || newHeight <= 0 || (newWidth == spriteWidth && newHeight == spriteHeight)) {
+            return;
+        }
+        long start = System.nanoTime();
+        BufferedImage[] rebuilt = new BufferedImage[NUM_SPRITES];
+        for (int i = 0; i < NUM_SPRITES; i++) {
+            rebuilt[i] = rasterise(i, newWidth, newHeight);
+        }
+        spriteWidth = newWidth;
+        spriteHeight = newHeight;
+        sprites = rebuilt;
+        lastRebuildNanos = System.nanoTime() - start;
+        if (PAINT_STATS) {
+            System.out.println("Rebuilt " + NUM_SPRITES + " card sprites at " + newWidth + "x" + newHeight + " in "
+                    + (lastRebuildNanos / 1000000) + " ms (hits: " + hits + " misses: " + misses + ")");
+        }
+    }
+
+    /**
+     * Draws the face of the card (or the blank outline if null) with its top left corner at x, y.
+     */
+    public static void drawCard(Card card, Graphics2D g, double x, double y) {
+        int index = card == null ? BLANK_SPRITE : card.getSuit().ordinal() * 13 + card.getRank().ordinal();
+        drawSprite(index, g, x, y);
+    }
 
-        try {
-            SVGDiagram diagram;
-            if (card == null) {
-                diagram = universe.getDiagram(ImageManager.class.getResource(urlBase + "blank.svg").toURI());
+    public static void drawBack(Graphics2D g, double x, double y, boolean blue) {
+        drawSprite(blue ? BLUE_SPRITE : RED_SPRITE, g, x, y);
+    }
 
-            } else {
-                diagram = universe.getDiagram(ImageManager.class.getResource(urlBase + card.getSuit().name().toLowerCase() + "/" + card.getRank().ordinal() + ".svg").toURI());
+    private static void drawSprite(int index, Graphics2D g, double x, double y) {
+        BufferedImage[] current = sprites;
+        BufferedImage sprite = current[index];
+        if (sprite == null) {
+            //Only happens if we paint before the first resize
+            misses++;
+            synchronized (ImageManager.class) {
+                sprite = rasterise(index, Math.max(spriteWidth, 1), Math.max(spriteHeight, 1));
             }
+            current[index] = sprite;
+        } else {
+            hits++;
+        }
+        g.drawImage(sprite, (int) Math.round(x), (int) Math.round(y), null);
+    }
+
+    private static BufferedImage rasterise(int index, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.scale(width / CARD_IMAGE_WIDTH, height / CARD_IMAGE_HEIGHT);
+        try {
+            SVGDiagram diagram = universe.getDiagram(ImageManager.class.getResource(urlBase + spriteName(index)).toURI());
             diagram.setIgnoringClipHeuristic(true);
             diagram.render(g);
 
@@ -48,8 +118,23 @@ public class ImageManager {
             e.printStackTrace();
         } catch (SVGException e) {
             e.printStackTrace();
+        } finally {
+            g.dispose();
         }
+        return image;
+    }
 
+    private static String spriteName(int index) {
+        switch (index) {
+            case BLANK_SPRITE:
+                return "blank.svg";
+            case BLUE_SPRITE:
+                return "blue.svg";
+            case RED_SPRITE:
+                return "red.svg";
+            default:
+                return Card.Suit.values()[index / 13].name().toLowerCase() + "/" + (index % 13) + ".svg";
+        }
     }
 
     private static void loadSVGs(URL[] URLs) {
@@ -64,17 +149,15 @@ public class ImageManager {
         }
     }
 
+    public static long getCacheHits() {
+        return hits;
+    }
 
-    public static void renderBlank(Graphics2D g, boolean blue) {
-        try {
-            SVGDiagram diagram = universe.getDiagram(ImageManager.class.getResource(urlBase + (blue ? "blue.svg" : "red.svg")).toURI());
-            diagram.setIgnoringClipHeuristic(true);
-            diagram.render(g);
+    public static long getCacheMisses() {
+        return misses;
+    }
 
-        } catch (URISyntaxException e) {
-            e.printStackTrace();
-        } catch (SVGException e) {
-            e.printStackTrace();
-        }
+    public static long getLastRebuildNanos() {
+        return lastRebuildNanos;
     }
 }
@@ -0,0 +1,65 @@
+package com.andrewlensen.kingsAndAces.replay;
+
+import com.andrewlensen.kingsAndAces.game.GameEngine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One game in a ReplayArchive, read straight from the archive when asked for.
+ */
+public class Replay {
+    private final ByteBuffer buffer;
+    private final int offset;
+
+    Replay(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    public long getDealNumber() {
+        return buffer.getLong(offset);
+    }
+
+    /**
+     * When the game started, in milliseconds since 1970.
+     */
+    public long getStartTime() {
+        return buffer.getLong(offset + 8);
+    }
+
+    public boolean isWon() {
+        return buffer.get(offset + 16) != 0;
+    }
+
+    /**
+     * Every move made, undos and redos included.
+     */
+    public int getMoveCount() {
+        return buffer.getInt(offset + 17);
+    }
+
+    /**
+     * The index'th move, packed as in MoveLog.
+     */
+    public int getMove(int index) {
+        return buffer.getInt(offset + ReplayArchive.RECORD_HEADER_BYTES + index * 8);
+    }
+
+    /**
+     * Milliseconds from the start of the game to the index'th move.
+     */
+    public int getTime(int index) {
+        return buffer.getInt(offset + ReplayArchive.RECORD_HEADER_BYTES + index * 8 + 4);
+    }
+
+    /**
+     * The game as it was after the first moves moves.
+     */
+    public GameEngine play(int moves) {
+        GameEngine engine = GameEngine.newGame(getDealNumber());
+        for (int i = 0; i < moves; i++) {
+            engine.getGame().replayMove(getMove(i));
+        }
+        return engine;
+    }
+}
@@ -0,0 +1,134 @@
+package com.andrewlensen.kingsAndAces.replay;
+
+import com.andrewlensen.kingsAndAces.game.Card;
+import com.andrewlensen.kingsAndAces.game.CardGame;
+import com.andrewlensen.kingsAndAces.game.MoveLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A file of recorded games, memory mapped so any game can be read without reading the ones before it.
+ * <p>
+ * The file starts with MAGIC and VERSION. Then comes each game: how many bytes follow for it, its deal number, when
+ * it started (milliseconds since 1970), a byte that is 1 if it was won and how many moves it has, then each move
+ * packed as in MoveLog (MoveLog.UNDO for an undo) followed by the milliseconds from the start of the game to it.
+ * Everything is big endian. Opening the archive only hops from one game's length to the next, so it takes
+ * moments even for thousands of games, and a game's moves are only read when they're asked for.
+ * <p>
+ * Run it as: ReplayArchive [file] to list the games, or ReplayArchive file game [moves] to step through a game,
+ * printing the board after moves moves (or the whole game).
+ */
+public class ReplayArchive {
+    //"KAAR"
+    static final int MAGIC = 0x4B414152;
+    static final int VERSION = 1;
+    static final int FILE_HEADER_BYTES = 8;
+    //Deal number, start time, won and move count
+    static final int RECORD_HEADER_BYTES = 8 + 8 + 1 + 4;
+
+    private final ByteBuffer buffer;
+    //Where each game's deal number is
+    private int[] offsets = new int[64];
+    private int size;
+
+    private ReplayArchive(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < FILE_HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a replay archive");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Can't read version " + buffer.getInt(4) + " replay archives");
+        }
+        int position = FILE_HEADER_BYTES;
+        //A game cut short by a crash while it was being written is left out
+        while (position + 4 <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length < RECORD_HEADER_BYTES || length > buffer.limit() - position - 4) {
+                break;
+            }
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = position + 4;
+            position += 4 + length;
+        }
+    }
+
+    /**
+     * Maps the file. Archives are limited to 2GB.
+     */
+    public static ReplayArchive open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too big to map");
+            }
+            //The mapping stays once the file is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ReplayArchive(mapped);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * How many games there are.
+     */
+    public int size() {
+        return size;
+    }
+
+    public Replay get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Game " + index + " of " + size);
+        }
+        return new Replay(buffer, offsets[index]);
+    }
+
+    public static void main(String[] args) throws IOException {
+        ReplayArchive archive = open(args.length > 0 ? new File(args[0]) : ReplayWriter.ARCHIVE);
+        if (args.length < 2) {
+            for (int i = 0; i < archive.size(); i++) {
+                Replay replay = archive.get(i);
+                System.out.printf("%d: deal %X, %d moves, %s%n", i, replay.getDealNumber(), replay.getMoveCount(),
+                        replay.isWon() ? "won" : "not won");
+            }
+            return;
+        }
+        Replay replay = archive.get(Integer.parseInt(args[1]));
+        int moves = args.length > 2 ? Integer.parseInt(args[2]) : replay.getMoveCount();
+        for (int i = 0; i < moves; i++) {
+            System.out.printf("%6.1fs %s%n", replay.getTime(i) / 1000.0, describe(replay.getMove(i)));
+        }
+        CardGame game = replay.play(moves).getGame();
+        List<List<Card>> board = game.getBoard();
+        for (int i = 0; i < board.size(); i++) {
+            System.out.println(i + ": " + board.get(i));
+        }
+        System.out.println("Deck: " + game.getDeck());
+        System.out.println("Hand: " + (game.getHand() == null ? "none" : game.getHand().getList()));
+    }
+
+    private static String describe(int move) {
+        switch (MoveLog.kind(move)) {
+            case MoveLog.DEAL:
+                return "deal";
+            case MoveLog.DECK_CLICK:
+                return "turn over deck";
+            case MoveLog.UNDO:
+                return "undo";
+            default:
+                int position = MoveLog.position(move);
+                return MoveLog.from(move) + " " + MoveLog.fromIndex(move) + (position == MoveLog.TOP ? "" : " at " + position)
+                        + " " + MoveLog.to(move) + " " + MoveLog.toIndex(move);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.andrewlensen.kingsAndAces.replay;
+
+import com.andrewlensen.kingsAndAces.game.Recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Adds games to the end of a replay archive, in the format ReplayArchive reads.
+ */
+public class ReplayWriter {
+    //Where the game keeps every game played
+    public static final File ARCHIVE = new File(System.getProperty("user.home"), ".kingsAndAces/replays.kar");
+
+    private ReplayWriter() {
+    }
+
+    /**
+     * Adds the recording to the end of the archive, making the archive if it isn't there. Games with no moves
+     * aren't worth keeping and are left out.
+     */
+    public static synchronized void append(File archive, Recording recording, boolean won) throws IOException {
+        int[] entries = recording.getEntries();
+        if (entries.length == 0) {
+            return;
+        }
+        File dir = archive.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't make " + dir);
+        }
+        RandomAccessFile file = new RandomAccessFile(archive, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            long end = completeLength(channel);
+            int length = ReplayArchive.RECORD_HEADER_BYTES + entries.length * 4;
+            ByteBuffer buffer = ByteBuffer.allocate((end == 0 ? ReplayArchive.FILE_HEADER_BYTES : 0) + 4 + length);
+            if (end == 0) {
+                buffer.putInt(ReplayArchive.MAGIC).putInt(ReplayArchive.VERSION);
+            }
+            buffer.putInt(length);
+            buffer.putLong(recording.getDealNumber());
+            buffer.putLong(recording.getStartTime());
+            buffer.put((byte) (won ? 1 : 0));
+            buffer.putInt(entries.length / 2);
+            for (int entry : entries) {
+                buffer.putInt(entry);
+            }
+            buffer.flip();
+            //Writing over anything left by a crash part way through the last game
+            channel.truncate(end);
+            while (buffer.hasRemaining()) {
+                end += channel.write(buffer, end);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    //The length of the archive up to the end of the last whole game, 0 if it's empty
+    private static long completeLength(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < ReplayArchive.FILE_HEADER_BYTES) {
+            //Empty, or a crash part way through writing the header, which is written again
+            return 0;
+        }
+        ByteBuffer header = ByteBuffer.allocate(ReplayArchive.FILE_HEADER_BYTES);
+        channel.read(header, 0);
+        if (header.getInt(0) != ReplayArchive.MAGIC) {
+            throw new IOException("Not a replay archive");
+        }
+        if (header.getInt(4) != ReplayArchive.VERSION) {
+            throw new IOException("Can't add to version " + header.getInt(4) + " replay archives");
+        }
+        long position = ReplayArchive.FILE_HEADER_BYTES;
+        ByteBuffer length = ByteBuffer.allocate(4);
+        while (position + 4 <= size) {
+            length.clear();
+            channel.read(length, position);
+            int bytes = length.getInt(0);
+            if (bytes < ReplayArchive.RECORD_HEADER_BYTES || bytes > size - position - 4) {
+                break;
+            }
+            position += 4 + bytes;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,39 @@
+package com.andrewlensen.kingsAndAces.sim;
+
+import com.andrewlensen.kingsAndAces.game.GameEngine;
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+import com.andrewlensen.kingsAndAces.game.moves.CardMoveImpl;
+import com.andrewlensen.kingsAndAces.game.moves.DealMove;
+import com.andrewlensen.kingsAndAces.game.moves.DeckClickMove;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Puts a card on a foundation whenever one will go, board cards before the hand as they uncover something, and only
+ * turns over the deck once nothing goes. Deals without putting anything back in the deck.
+ */
+public class GreedyPolicy implements Policy {
+    @Override
+    public CardMove choose(GameEngine engine, List<CardMove> legalMoves, Random random) {
+        CardMove fromHand = null;
+        CardMove other = null;
+        for (CardMove move : legalMoves) {
+            if (Simulator.isPlay(move)) {
+                if (((CardMoveImpl) move).getMoveTypeFrom() == CardMoveImpl.MOVE_TYPE_FROM.FROM_BOARD) {
+                    return move;
+                }
+                if (fromHand == null) {
+                    fromHand = move;
+                }
+            } else if (move instanceof DealMove || move instanceof DeckClickMove) {
+                other = move;
+            }
+        }
+        return fromHand != null ? fromHand : other;
+    }
+
+    public String toString() {
+        return "greedy";
+    }
+}
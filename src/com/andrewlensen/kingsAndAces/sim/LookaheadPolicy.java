@@ -0,0 +1,175 @@
+package com.andrewlensen.kingsAndAces.sim;
+
+import com.andrewlensen.kingsAndAces.game.Card;
+import com.andrewlensen.kingsAndAces.game.CardGame;
+import com.andrewlensen.kingsAndAces.game.GameEngine;
+import com.andrewlensen.kingsAndAces.game.Hand;
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+import com.andrewlensen.kingsAndAces.game.moves.CardMoveImpl;
+import com.andrewlensen.kingsAndAces.game.moves.DealMove;
+import com.andrewlensen.kingsAndAces.game.moves.DeckClickMove;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tries every foundation move and slide a few moves deep, and makes the one that leads to the most cards on the
+ * foundations. Slides count, so unlike GreedyPolicy this finds cards that only go on once two piles have been slid
+ * to meet them. Lines that DeadEnds says are lost count for nothing. The deck is only turned over once nothing gets
+ * more cards on, and the hand is sorted first so the cards that go on soonest end up on top of its pile.
+ * <p>
+ * While dealing, every card that can go on the deck does.
+ */
+public class LookaheadPolicy implements Policy {
+    //Score of a move that leaves the game lost, worse than anything
+    private static final int DEAD = -1;
+    private static final int RANKS = Card.Rank.values().length;
+
+    private final int depth;
+
+    public LookaheadPolicy(int depth) {
+        this.depth = depth;
+    }
+
+    @Override
+    public CardMove choose(GameEngine engine, List<CardMove> legalMoves, Random random) {
+        CardGame game = engine.getGame();
+        if (!game.hasDealt()) {
+            return dealMove(legalMoves);
+        }
+        CardMove best = null;
+        //Only make a move that gets somewhere, or slides could go back and forth forever
+        int bestScore = score(game);
+        CardMove other = null;
+        for (CardMove move : legalMoves) {
+            if (Simulator.isPlay(move)) {
+                int score = scoreAfter(engine, move);
+                if (score > bestScore) {
+                    best = move;
+                    bestScore = score;
+                }
+            } else if (move instanceof DeckClickMove) {
+                other = move;
+            }
+        }
+        //Slides have to do better than putting a card on, or a slide and a slide back could both look as good
+        for (CardMove move : legalMoves) {
+            if (Simulator.isSlide(move)) {
+                int score = scoreAfter(engine, move);
+                if (score > bestScore) {
+                    best = move;
+                    bestScore = score;
+                }
+            }
+        }
+        if (best == null && other != null) {
+            CardMove tidy = tidyHand(game, legalMoves);
+            if (tidy != null) {
+                return tidy;
+            }
+        }
+        return best != null ? best : other;
+    }
+
+    //Turning over the deck puts the hand back on its pile, so first sort it with the cards nearest going on at the
+    //top. One card is put in its place each time, so this is called again until it is sorted.
+    private static CardMove tidyHand(final CardGame game, List<CardMove> legalMoves) {
+        Hand hand = game.getHand();
+        if (hand == null || hand.getIndex() == -1) {
+            return null;
+        }
+        List<Card> cards = hand.getList();
+        List<Card> sorted = new ArrayList<Card>(cards);
+        //Stable, so cards as far from going on stay in the order they're in
+        Collections.sort(sorted, new Comparator<Card>() {
+            @Override
+            public int compare(Card a, Card b) {
+                return distance(game, b) - distance(game, a);
+            }
+        });
+        for (int i = 0; i < cards.size(); i++) {
+            if (cards.get(i) != sorted.get(i)) {
+                int from = cards.indexOf(sorted.get(i));
+                for (CardMove move : legalMoves) {
+                    if (Simulator.isHandReorder(move) && ((CardMoveImpl) move).getIndexFrom() == from
+                            && ((CardMoveImpl) move).getIndexTo() == i) {
+                        return move;
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    //How many cards of its suit have to go on before this one can, on whichever foundation is nearer, RANKS if
+    //neither wants it
+    private static int distance(CardGame game, Card card) {
+        int i = Arrays.asList(CardGame.FOUNDATION_SUITS).indexOf(card.getSuit());
+        int aceTop = game.getAcePiles().get(i).size() - 1;
+        int kingTop = Card.Rank.KING.ordinal() - (game.getKingPiles().get(i).size() - 1);
+        if (kingTop == aceTop + 1) {
+            //Sliding between the piles can put the gap anywhere
+            return 0;
+        }
+        int rank = card.getRank().ordinal();
+        int up = rank > aceTop ? rank - aceTop - 1 : RANKS;
+        int down = rank < kingTop ? kingTop - 1 - rank : RANKS;
+        return Math.min(up, down);
+    }
+
+    //Every card that can go on the deck does, as it can't be buried there and is one more pile to get at later
+    private static CardMove dealMove(List<CardMove> legalMoves) {
+        CardMove deal = null;
+        for (CardMove move : legalMoves) {
+            if (move instanceof CardMoveImpl && ((CardMoveImpl) move).getMoveTypeTo() == CardMove.MOVE_TYPE_TO.TO_DECK) {
+                return move;
+            }
+            if (move instanceof DealMove) {
+                deal = move;
+            }
+        }
+        return deal;
+    }
+
+    private int scoreAfter(GameEngine engine, CardMove move) {
+        engine.apply(move);
+        int score = engine.isDeadEnd() ? DEAD : bestScore(engine, depth - 1);
+        engine.undo();
+        return score;
+    }
+
+    private static int bestScore(GameEngine engine, int depth) {
+        int best = score(engine.getGame());
+        if (depth <= 0 || engine.isWon()) {
+            return best;
+        }
+        for (CardMove move : engine.legalMoves()) {
+            if (Simulator.isPlay(move) || Simulator.isSlide(move)) {
+                engine.apply(move);
+                if (!engine.isDeadEnd()) {
+                    best = Math.max(best, bestScore(engine, depth - 1));
+                }
+                engine.undo();
+            }
+        }
+        return best;
+    }
+
+    //Cards on the foundations
+    private static int score(CardGame game) {
+        int score = 0;
+        for (int i = 0; i < 4; i++) {
+            score += game.getKingPiles().get(i).size() + game.getAcePiles().get(i).size();
+        }
+        return score;
+    }
+
+    public String toString() {
+        return "lookahead " + depth;
+    }
+}
@@ -0,0 +1,19 @@
+package com.andrewlensen.kingsAndAces.sim;
+
+import com.andrewlensen.kingsAndAces.game.GameEngine;
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * How a simulated player picks their moves. One policy is shared by every simulator thread, so it mustn't keep
+ * anything between calls.
+ */
+public interface Policy {
+    /**
+     * Picks one of the legal moves, or null to give up on the game. The engine can be used to try moves out as long
+     * as they are all undone again. Any randomness must come from random, so a deal always plays out the same.
+     */
+    public CardMove choose(GameEngine engine, List<CardMove> legalMoves, Random random);
+}
@@ -0,0 +1,29 @@
+package com.andrewlensen.kingsAndAces.sim;
+
+import com.andrewlensen.kingsAndAces.game.GameEngine;
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Any move that gets the game somewhere, picked at random. Reordering the hand and sliding cards between foundations
+ * are left out as they could go round in circles forever.
+ */
+public class RandomPolicy implements Policy {
+    @Override
+    public CardMove choose(GameEngine engine, List<CardMove> legalMoves, Random random) {
+        List<CardMove> moves = new ArrayList<CardMove>(legalMoves.size());
+        for (CardMove move : legalMoves) {
+            if (!Simulator.isHandReorder(move) && !Simulator.isSlide(move)) {
+                moves.add(move);
+            }
+        }
+        return moves.isEmpty() ? null : moves.get(random.nextInt(moves.size()));
+    }
+
+    public String toString() {
+        return "random";
+    }
+}
@@ -0,0 +1,248 @@
+package com.andrewlensen.kingsAndAces.sim;
+
+import com.andrewlensen.kingsAndAces.game.DealCatalog;
+import com.andrewlensen.kingsAndAces.game.GameEngine;
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+import com.andrewlensen.kingsAndAces.game.moves.CardMoveImpl;
+import com.andrewlensen.kingsAndAces.game.moves.MoveResult;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays lots of deals from a DealCatalog with a Policy on every core, to find out how often the game is won playing
+ * that way. Games are played on GameEngines, so none of the Swing side is involved. Each deal is played with a Random
+ * seeded from its deal number, so the same catalog and policy always give the same answer.
+ * <p>
+ * Run it as: Simulator (random | greedy | lookahead[:depth]) games [catalog seed]
+ */
+public class Simulator {
+    //Games a task plays itself rather than splitting in two
+    private static final int GAMES_PER_TASK = 256;
+    //Way more than any game takes, just in case a policy goes round in circles
+    private static final int MAX_MOVES = 2000;
+    //For a 95% confidence interval
+    private static final double Z = 1.96;
+
+    private final ForkJoinPool pool;
+    private final Policy policy;
+
+    public Simulator(ForkJoinPool pool, Policy policy) {
+        this.pool = pool;
+        this.policy = policy;
+    }
+
+    public Simulator(Policy policy) {
+        this(new ForkJoinPool(), policy);
+    }
+
+    /**
+     * Plays the first games deals of the catalog.
+     */
+    public Report run(DealCatalog catalog, long games) {
+        long start = System.nanoTime();
+        Tally tally = pool.invoke(new Games(catalog, 0, games));
+        return new Report(policy, tally.games, tally.wins, tally.moves, System.nanoTime() - start);
+    }
+
+    /**
+     * Plays one deal out, returning the number of moves made, negative if it was lost.
+     */
+    public int play(long dealNumber) {
+        GameEngine engine = GameEngine.newGame(dealNumber);
+        Random random = new Random(dealNumber);
+        int moves = 0;
+        while (!engine.isWon() && moves < MAX_MOVES) {
+            //No point playing on once it can't be won
+            if (engine.isDeadEnd()) {
+                return -moves - 1;
+            }
+            CardMove move = policy.choose(engine, engine.legalMoves(), random);
+            if (move == null) {
+                return -moves - 1;
+            }
+            MoveResult result = engine.apply(move);
+            if (!result.isOk()) {
+                throw new IllegalStateException(policy + " picked " + move + " which failed: " + result);
+            }
+            moves++;
+        }
+        return engine.isWon() ? moves : -moves - 1;
+    }
+
+    /**
+     * Putting a card from the board or the hand onto a foundation.
+     */
+    public static boolean isPlay(CardMove move) {
+        if (!(move instanceof CardMoveImpl)) {
+            return false;
+        }
+        CardMoveImpl impl = (CardMoveImpl) move;
+        CardMoveImpl.MOVE_TYPE_FROM from = impl.getMoveTypeFrom();
+        return (from == CardMoveImpl.MOVE_TYPE_FROM.FROM_BOARD || from == CardMoveImpl.MOVE_TYPE_FROM.FROM_HAND)
+                && (impl.getMoveTypeTo() == CardMove.MOVE_TYPE_TO.TO_ACE_PILES || impl.getMoveTypeTo() == CardMove.MOVE_TYPE_TO.TO_KING_PILES);
+    }
+
+    /**
+     * Moving a card from a king pile to an ace pile or back.
+     */
+    public static boolean isSlide(CardMove move) {
+        if (!(move instanceof CardMoveImpl)) {
+            return false;
+        }
+        CardMoveImpl.MOVE_TYPE_FROM from = ((CardMoveImpl) move).getMoveTypeFrom();
+        return from == CardMoveImpl.MOVE_TYPE_FROM.FROM_ACE_PILES || from == CardMoveImpl.MOVE_TYPE_FROM.FROM_KING_PILES;
+    }
+
+    public static boolean isHandReorder(CardMove move) {
+        return move instanceof CardMoveImpl && ((CardMoveImpl) move).getMoveTypeTo() == CardMove.MOVE_TYPE_TO.TO_HAND;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: Simulator (random | greedy | lookahead[:depth]) games [catalog seed]");
+            System.exit(1);
+        }
+        Policy policy;
+        String name = args[0];
+        if (name.equals("random")) {
+            policy = new RandomPolicy();
+        } else if (name.equals("greedy")) {
+            policy = new GreedyPolicy();
+        } else if (name.startsWith("lookahead")) {
+            //lookahead:3 for a depth other than 2
+            int colon = name.indexOf(':');
+            policy = new LookaheadPolicy(colon == -1 ? 2 : Integer.parseInt(name.substring(colon + 1)));
+        } else {
+            throw new IllegalArgumentException("No policy called " + name);
+        }
+        long games = Long.parseLong(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        System.out.println(new Simulator(policy).run(new DealCatalog(seed), games));
+    }
+
+    //Tasks are never serialized
+    @SuppressWarnings("serial")
+    private class Games extends RecursiveTask<Tally> {
+        private final DealCatalog catalog;
+        private final long from;
+        private final long to;
+
+        private Games(DealCatalog catalog, long from, long to) {
+            this.catalog = catalog;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Tally compute() {
+            if (to - from > GAMES_PER_TASK) {
+                long middle = (from + to) >>> 1;
+                Games second = new Games(catalog, middle, to);
+                second.fork();
+                Tally tally = new Games(catalog, from, middle).compute();
+                tally.add(second.join());
+                return tally;
+            }
+            Tally tally = new Tally();
+            for (long i = from; i < to; i++) {
+                int moves = play(catalog.get(i));
+                tally.games++;
+                if (moves >= 0) {
+                    tally.wins++;
+                    tally.moves += moves;
+                } else {
+                    tally.moves += -moves - 1;
+                }
+            }
+            return tally;
+        }
+    }
+
+    private static class Tally {
+        private long games;
+        private long wins;
+        private long moves;
+
+        private void add(Tally other) {
+            games += other.games;
+            wins += other.wins;
+            moves += other.moves;
+        }
+    }
+
+    public static class Report {
+        private final Policy policy;
+        private final long games;
+        private final long wins;
+        private final long moves;
+        private final long nanos;
+
+        private Report(Policy policy, long games, long wins, long moves, long nanos) {
+            this.policy = policy;
+            this.games = games;
+            this.wins = wins;
+            this.moves = moves;
+            this.nanos = nanos;
+        }
+
+        public long getGames() {
+            return games;
+        }
+
+        public long getWins() {
+            return wins;
+        }
+
+        public double getWinRate() {
+            return games == 0 ? 0 : (double) wins / games;
+        }
+
+        /**
+         * The bottom of the 95% Wilson score interval for the win rate, which unlike the usual p +- z*se stays
+         * inside 0 to 1 and still works when wins are rare.
+         */
+        public double getWinRateLow() {
+            return wilsonCentre() - wilsonSpread();
+        }
+
+        public double getWinRateHigh() {
+            return wilsonCentre() + wilsonSpread();
+        }
+
+        private double wilsonCentre() {
+            if (games == 0) {
+                return 0.5;
+            }
+            double p = getWinRate();
+            return (p + Z * Z / (2 * games)) / (1 + Z * Z / games);
+        }
+
+        private double wilsonSpread() {
+            if (games == 0) {
+                return 0.5;
+            }
+            double p = getWinRate();
+            return Z * Math.sqrt(p * (1 - p) / games + Z * Z / (4.0 * games * games)) / (1 + Z * Z / games);
+        }
+
+        public double getGamesPerSecond() {
+            return nanos == 0 ? 0 : games * 1e9 / nanos;
+        }
+
+        /**
+         * Moves made per game, won or lost.
+         */
+        public double getAverageMoves() {
+            return games == 0 ? 0 : (double) moves / games;
+        }
+
+        public String toString() {
+            return String.format("%s: won %d of %d (%.3f%%, 95%% CI %.3f%% - %.3f%%), %.0f games/sec, %.1f moves a game",
+                    policy, wins, games, 100 * getWinRate(), 100 * getWinRateLow(), 100 * getWinRateHigh(),
+                    getGamesPerSecond(), getAverageMoves());
+        }
+    }
+}
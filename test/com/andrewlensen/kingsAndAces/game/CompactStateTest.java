@@ -0,0 +1,94 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompactStateTest {
+    private static final int DEALS = 10;
+    //Stopping points, the first few during the deal
+    private static final int[] MOVES = {0, 3, 8, 20, 60, 150};
+
+    /**
+     * Positions part way through some random games, restored onto a new game, come back the same and play on the same.
+     */
+    @Test
+    public void restoredPositionsAreEqual() {
+        DealCatalog catalog = new DealCatalog(1);
+        for (int deal = 0; deal < DEALS; deal++) {
+            for (int moves : MOVES) {
+                long dealNumber = catalog.get(deal);
+                Random random = new Random(dealNumber + moves);
+                GameEngine engine = play(dealNumber, moves, random);
+                CardGame game = engine.getGame();
+                CompactState state = CompactState.of(game);
+
+                CardGame copy = new CardGame();
+                state.applyTo(copy);
+                CompactState restored = CompactState.of(copy);
+                assertEquals(state, restored);
+                assertEquals(state.hashCode(), restored.hashCode());
+                assertEquals(game.getHash(), copy.getHash());
+                assertEquals(game.hasDealt(), copy.hasDealt());
+                assertTrue(copy.getHistory().isEmpty());
+
+                //The copy has everything it needs to carry on
+                GameEngine copyEngine = new GameEngine(copy);
+                for (int i = 0; i < 20 && !engine.isWon(); i++) {
+                    List<CardMove> legal = engine.legalMoves();
+                    assertEquals(legal.size(), copyEngine.legalMoves().size());
+                    if (legal.isEmpty()) {
+                        break;
+                    }
+                    int pick = random.nextInt(legal.size());
+                    assertTrue(engine.apply(legal.get(pick)).isOk());
+                    assertTrue(copyEngine.apply(copyEngine.legalMoves().get(pick)).isOk());
+                    assertEquals(CompactState.of(game), CompactState.of(copy));
+                    assertEquals(game.getHash(), copy.getHash());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void differentPositionsAreNotEqual() {
+        long dealNumber = new DealCatalog(1).get(0);
+        GameEngine engine = play(dealNumber, 0, new Random(dealNumber));
+        CompactState start = CompactState.of(engine.getGame());
+        engine.apply(engine.legalMoves().get(0));
+        assertFalse(start.equals(CompactState.of(engine.getGame())));
+        engine.undo();
+        assertEquals(start, CompactState.of(engine.getGame()));
+    }
+
+    @Test
+    public void encodingIntoAnArrayMatchesOf() {
+        long dealNumber = new DealCatalog(1).get(1);
+        GameEngine engine = play(dealNumber, 60, new Random(dealNumber));
+        //Starts full of rubbish, which encode must clear
+        byte[] data = new byte[CompactState.LENGTH];
+        Arrays.fill(data, (byte) 77);
+        CompactState.encode(engine.getGame(), data);
+        assertEquals(CompactState.of(engine.getGame()), CompactState.wrap(data));
+        assertEquals(CompactState.of(engine.getGame()), CompactState.of(engine.getGame()).copy());
+    }
+
+    private static GameEngine play(long dealNumber, int moves, Random random) {
+        GameEngine engine = GameEngine.newGame(dealNumber);
+        for (int i = 0; i < moves && !engine.isWon(); i++) {
+            List<CardMove> legal = engine.legalMoves();
+            if (legal.isEmpty()) {
+                break;
+            }
+            engine.apply(legal.get(random.nextInt(legal.size())));
+        }
+        return engine;
+    }
+}
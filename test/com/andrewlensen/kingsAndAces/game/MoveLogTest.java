@@ -0,0 +1,162 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+import com.andrewlensen.kingsAndAces.game.moves.CardMoveImpl;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MoveLogTest {
+    private static final int DEALS = 20;
+    private static final int MOVES = 400;
+
+    @Test
+    public void cardMovesKeepEveryField() {
+        for (CardMoveImpl.MOVE_TYPE_FROM from : CardMoveImpl.MOVE_TYPE_FROM.values()) {
+            for (CardMove.MOVE_TYPE_TO to : CardMove.MOVE_TYPE_TO.values()) {
+                //The smallest and largest each field holds
+                for (int fromIndex : new int[]{0, CardGame.BOARD_PILES - 1, 15}) {
+                    for (int position : new int[]{0, 1, MoveLog.TOP - 1, MoveLog.TOP}) {
+                        for (int toIndex : new int[]{0, CardGame.BOARD_PILES - 1, 63}) {
+                            int move = MoveLog.card(from, fromIndex, position, to, toIndex);
+                            assertEquals(MoveLog.CARD, MoveLog.kind(move));
+                            assertEquals(from, MoveLog.from(move));
+                            assertEquals(fromIndex, MoveLog.fromIndex(move));
+                            assertEquals(position, MoveLog.position(move));
+                            assertEquals(to, MoveLog.to(move));
+                            assertEquals(toIndex, MoveLog.toIndex(move));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void dealsKeepTheDeckCountAndRound() {
+        for (int toDeck = 0; toDeck <= 63; toDeck++) {
+            for (boolean dealtRound : new boolean[]{false, true}) {
+                int move = MoveLog.deal(toDeck, dealtRound);
+                assertEquals(MoveLog.DEAL, MoveLog.kind(move));
+                assertEquals(toDeck, MoveLog.toDeck(move));
+                assertEquals(dealtRound, MoveLog.dealtRound(move));
+            }
+        }
+    }
+
+    @Test
+    public void deckClicksKeepTheOldHand() {
+        //-1 for no hand is stored as 0
+        for (int index = -1; index <= 30; index++) {
+            int move = MoveLog.deckClick(index);
+            assertEquals(MoveLog.DECK_CLICK, MoveLog.kind(move));
+            assertEquals(index, MoveLog.prevHandIndex(move));
+            assertTrue(move != MoveLog.UNDO);
+        }
+    }
+
+    /**
+     * Every move of some random games is taken back and made again, each time landing on the same position and hash.
+     */
+    @Test
+    public void movesTakeBackAndReplay() {
+        Set<String> kinds = new HashSet<String>();
+        DealCatalog catalog = new DealCatalog(1);
+        for (int deal = 0; deal < DEALS; deal++) {
+            long dealNumber = catalog.get(deal);
+            GameEngine engine = GameEngine.newGame(dealNumber);
+            CardGame game = engine.getGame();
+            Random random = new Random(dealNumber);
+            for (int i = 0; i < MOVES && !engine.isWon(); i++) {
+                List<CardMove> legal = engine.legalMoves();
+                if (legal.isEmpty()) {
+                    break;
+                }
+                CompactState before = CompactState.of(game);
+                long beforeHash = game.getHash();
+                CardMove move = legal.get(random.nextInt(legal.size()));
+                assertTrue(engine.apply(move).isOk());
+                CompactState after = CompactState.of(game);
+                long afterHash = game.getHash();
+                int encoded = game.getHistory().peek();
+                assertEquals(move.encode(), encoded);
+                kinds.add(kind(encoded));
+
+                MoveLog.takeBack(game, encoded);
+                assertEquals(before, CompactState.of(game));
+                assertEquals(beforeHash, game.getHash());
+                MoveLog.replay(game, encoded);
+                assertEquals(after, CompactState.of(game));
+                assertEquals(afterHash, game.getHash());
+            }
+        }
+        for (String kind : new String[]{"board", "hand", "foundation", "deal round", "deal end", "deck add",
+                "first click", "click"}) {
+            assertTrue("No " + kind + " move was tried", kinds.contains(kind));
+        }
+    }
+
+    /**
+     * A recording's UNDO takes the last move back, and the same move straight after redoes it.
+     */
+    @Test
+    public void recordedUndosTakeBackAndRedo() {
+        long dealNumber = new DealCatalog(1).get(0);
+        GameEngine engine = GameEngine.newGame(dealNumber);
+        CardGame game = engine.getGame();
+        Random random = new Random(dealNumber);
+        List<CompactState> positions = new ArrayList<CompactState>();
+        positions.add(CompactState.of(game));
+        for (int i = 0; i < MOVES && !engine.isWon(); i++) {
+            List<CardMove> legal = engine.legalMoves();
+            if (legal.isEmpty()) {
+                break;
+            }
+            engine.apply(legal.get(random.nextInt(legal.size())));
+            positions.add(CompactState.of(game));
+        }
+        int[] moves = game.getHistory().toArray();
+        assertEquals(positions.size() - 1, moves.length);
+
+        for (int i = moves.length - 1; i >= 0; i--) {
+            game.replayMove(MoveLog.UNDO);
+            assertEquals(positions.get(i), CompactState.of(game));
+            assertEquals(i, game.getHistory().size());
+        }
+        for (int i = 0; i < moves.length; i++) {
+            assertTrue(game.getHistory().canRedo());
+            game.replayMove(moves[i]);
+            assertEquals(positions.get(i + 1), CompactState.of(game));
+        }
+        assertFalse(game.getHistory().canRedo());
+    }
+
+    private static String kind(int move) {
+        switch (MoveLog.kind(move)) {
+            case MoveLog.DEAL:
+                return MoveLog.dealtRound(move) ? "deal round" : "deal end";
+            case MoveLog.DECK_CLICK:
+                return MoveLog.prevHandIndex(move) == -1 ? "first click" : "click";
+            default:
+                if (MoveLog.to(move) == CardMove.MOVE_TYPE_TO.TO_DECK) {
+                    return "deck add";
+                }
+                switch (MoveLog.from(move)) {
+                    case FROM_BOARD:
+                        return "board";
+                    case FROM_HAND:
+                        return "hand";
+                    default:
+                        return "foundation";
+                }
+        }
+    }
+}
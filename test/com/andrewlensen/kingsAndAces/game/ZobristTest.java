@@ -0,0 +1,52 @@
+package com.andrewlensen.kingsAndAces.game;
+
+import com.andrewlensen.kingsAndAces.game.moves.CardMove;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ZobristTest {
+    private static final int DEALS = 20;
+    private static final int MOVES = 400;
+
+    /**
+     * The check -DkingsAndAces.verifyHash makes, after every move, undo and redo of some random games.
+     */
+    @Test
+    public void hashIsKeptUpToDate() {
+        DealCatalog catalog = new DealCatalog(1);
+        for (int deal = 0; deal < DEALS; deal++) {
+            long dealNumber = catalog.get(deal);
+            GameEngine engine = GameEngine.newGame(dealNumber);
+            CardGame game = engine.getGame();
+            Random random = new Random(dealNumber);
+            assertFresh(game);
+            for (int i = 0; i < MOVES && !engine.isWon(); i++) {
+                int roll = random.nextInt(10);
+                if (roll == 0 && !game.getHistory().isEmpty()) {
+                    engine.undo();
+                } else if (roll == 1 && game.getHistory().canRedo()) {
+                    engine.redo();
+                } else {
+                    List<CardMove> legal = engine.legalMoves();
+                    if (legal.isEmpty()) {
+                        break;
+                    }
+                    engine.apply(legal.get(random.nextInt(legal.size())));
+                }
+                assertFresh(game);
+            }
+        }
+    }
+
+    private static void assertFresh(CardGame game) {
+        long[] sections = new long[Zobrist.SECTIONS];
+        assertEquals(Zobrist.of(game, sections), game.getHash());
+        for (int i = 0; i < Zobrist.SECTIONS; i++) {
+            assertEquals("Section " + i, sections[i], game.getSectionHash(i));
+        }
+    }
+}